@@ -0,0 +1,68 @@
+package com.marverenic.adapter;
+
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Holds the background threads shared by every {@link HeterogeneousAdapter} for work that
+ * shouldn't run on the main thread. Filtering, diffing and snapshots share one thread, and
+ * {@link StreamSection} diffs run on another so that a busy stream can't delay a filter query.
+ * Work on each thread is run serially.
+ */
+final class AdapterExecutors {
+
+    private static Executor sBackgroundExecutor;
+    private static Executor sStreamExecutor;
+
+    private AdapterExecutors() {
+        throw new UnsupportedOperationException("AdapterExecutors cannot be instantiated");
+    }
+
+    static synchronized Executor getBackgroundExecutor() {
+        if (sBackgroundExecutor == null) {
+            sBackgroundExecutor = newSerialExecutor("HeterogeneousAdapter-background");
+        }
+        return sBackgroundExecutor;
+    }
+
+    static synchronized Executor getStreamExecutor() {
+        if (sStreamExecutor == null) {
+            sStreamExecutor = newSerialExecutor("HeterogeneousAdapter-stream");
+        }
+        return sStreamExecutor;
+    }
+
+    /**
+     * Replaces the background executor, so that tests can run background work synchronously
+     * @param executor The executor to use, or {@code null} to go back to the default thread
+     */
+    @VisibleForTesting
+    static synchronized void setBackgroundExecutor(@Nullable Executor executor) {
+        sBackgroundExecutor = executor;
+    }
+
+    /**
+     * Replaces the executor used to diff {@link StreamSection} emissions, so that tests can
+     * control when diffs run
+     * @param executor The executor to use, or {@code null} to go back to the default thread
+     */
+    @VisibleForTesting
+    static synchronized void setStreamExecutor(@Nullable Executor executor) {
+        sStreamExecutor = executor;
+    }
+
+    private static Executor newSerialExecutor(final String name) {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
@@ -0,0 +1,441 @@
+package com.marverenic.adapter;
+
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An implementation of {@link RecyclerView.Adapter} that shows several
+ * {@link HeterogeneousAdapter HeterogeneousAdapters} one after another in a single
+ * {@link RecyclerView}. This allows independently owned parts of a screen to each manage their
+ * own adapter.
+ *
+ * Each child keeps its own view types, which are remapped so that they never collide with the
+ * view types of other children. Notifications sent by a child are translated into the equivalent
+ * range notifications for this adapter. A child calling
+ * {@link RecyclerView.Adapter#notifyDataSetChanged()} only refreshes the items of that child.
+ *
+ * If this adapter has stable IDs, every child must have stable IDs too. Item IDs are mixed with a
+ * value unique to each child, so children may use the same IDs as each other.
+ *
+ * Children must not be attached to a {@link RecyclerView} on their own, which means that
+ * {@link DragDropAdapter} can't be used as a child.
+ */
+public class ConcatenatedAdapter extends RecyclerView.Adapter<EnhancedViewHolder> {
+
+    /**
+     * The number of bits at the top of an item ID reserved for identifying the child that the
+     * item belongs to
+     */
+    private static final int CHILD_ID_SHIFT = 56;
+
+    /**
+     * The number of children that can be told apart in item IDs
+     */
+    private static final int MAX_CHILD_IDS = 1 << (Long.SIZE - CHILD_ID_SHIFT);
+
+    private final List<Child> mChildren;
+    private final SectionOffsetIndex mOffsetIndex;
+    private final SparseArray<ViewTypeMapping> mViewTypes;
+    private final List<RecyclerView> mRecyclerViews;
+
+    private int mNextViewType;
+
+    public ConcatenatedAdapter() {
+        mChildren = new ArrayList<>();
+        mOffsetIndex = new SectionOffsetIndex();
+        mViewTypes = new SparseArray<>();
+        mRecyclerViews = new ArrayList<>();
+    }
+
+    /**
+     * @return The number of child adapters in this adapter
+     */
+    public int getAdapterCount() {
+        return mChildren.size();
+    }
+
+    /**
+     * @param index The index of a child adapter
+     * @return The child adapter at this index
+     */
+    public HeterogeneousAdapter getAdapter(int index) {
+        return mChildren.get(index).mAdapter;
+    }
+
+    /**
+     * Adds an adapter after all other children
+     * @param adapter The adapter to add
+     * @return this Adapter, for chain building
+     */
+    public ConcatenatedAdapter addAdapter(@NonNull HeterogeneousAdapter adapter) {
+        return addAdapter(adapter, mChildren.size());
+    }
+
+    /**
+     * Adds an adapter at a specified index
+     * @param adapter The adapter to add
+     * @param index The index to add the adapter at
+     * @return this Adapter, for chain building
+     */
+    public ConcatenatedAdapter addAdapter(@NonNull HeterogeneousAdapter adapter, int index) {
+        for (Child child : mChildren) {
+            if (child.mAdapter == adapter) {
+                throw new IllegalArgumentException("This adapter has already been added");
+            }
+        }
+        if (hasStableIds() && !adapter.hasStableIds()) {
+            throw new IllegalArgumentException("Children of an adapter with stable IDs must "
+                    + "also have stable IDs");
+        }
+
+        Child child = new Child(adapter, getUnusedChildId());
+        mChildren.add(index, child);
+        rebuildOffsetIndex();
+
+        adapter.registerAdapterDataObserver(child);
+        for (RecyclerView recyclerView : mRecyclerViews) {
+            adapter.onAttachedToRecyclerView(recyclerView);
+        }
+
+        int count = adapter.getItemCount();
+        if (count > 0) {
+            notifyItemRangeInserted(mOffsetIndex.getOffset(index), count);
+        }
+        return this;
+    }
+
+    /**
+     * Removes a child adapter
+     * @param index The index of the adapter to remove
+     */
+    public void removeAdapter(int index) {
+        Child child = mChildren.get(index);
+        int offset = mOffsetIndex.getOffset(index);
+        int count = mOffsetIndex.getSize(index);
+
+        mChildren.remove(index);
+        rebuildOffsetIndex();
+
+        child.mAdapter.unregisterAdapterDataObserver(child);
+        for (RecyclerView recyclerView : mRecyclerViews) {
+            child.mAdapter.onDetachedFromRecyclerView(recyclerView);
+        }
+
+        // View types are never reused, so recycled views of this child will never be used again
+        for (int i = child.mOuterViewTypes.size() - 1; i >= 0; i--) {
+            int viewType = child.mOuterViewTypes.valueAt(i);
+            mViewTypes.remove(viewType);
+            for (RecyclerView recyclerView : mRecyclerViews) {
+                recyclerView.getRecycledViewPool().setMaxRecycledViews(viewType, 0);
+            }
+        }
+        child.mOuterViewTypes.clear();
+
+        if (count > 0) {
+            notifyItemRangeRemoved(offset, count);
+        }
+    }
+
+    /**
+     * @return The smallest child ID that isn't used by another child, so that IDs stay within
+     *         the bits reserved for them in item IDs
+     */
+    private int getUnusedChildId() {
+        boolean[] used = new boolean[MAX_CHILD_IDS];
+        for (Child child : mChildren) {
+            used[child.mId] = true;
+        }
+        for (int id = 0; id < MAX_CHILD_IDS; id++) {
+            if (!used[id]) {
+                return id;
+            }
+        }
+        throw new IllegalStateException("A ConcatenatedAdapter can't have more than "
+                + MAX_CHILD_IDS + " children");
+    }
+
+    /**
+     * Gets the position of a child's first item in this adapter
+     * @param index The index of a child adapter
+     * @return The position of the child's first item in this adapter
+     */
+    public int getAdapterStart(int index) {
+        return mOffsetIndex.getOffset(index);
+    }
+
+    private void rebuildOffsetIndex() {
+        int count = mChildren.size();
+        int[] sizes = new int[count];
+        for (int i = 0; i < count; i++) {
+            Child child = mChildren.get(i);
+            child.mIndex = i;
+            sizes[i] = child.mAdapter.getItemCount();
+        }
+        mOffsetIndex.rebuild(sizes, count);
+    }
+
+    private Child getChildForPosition(int position) {
+        int index = mOffsetIndex.findSection(position);
+        if (index == -1) {
+            throw new IndexOutOfBoundsException("Position " + position
+                    + " is out of bounds for an adapter with " + getItemCount() + " items");
+        }
+        return mChildren.get(index);
+    }
+
+    /**
+     * Releases memory in every child adapter in response to memory pressure
+     * @param level The trim level passed to
+     *              {@link android.content.ComponentCallbacks2#onTrimMemory(int)}
+     * @see HeterogeneousAdapter#onTrimMemory(int)
+     */
+    public void onTrimMemory(int level) {
+        for (Child child : mChildren) {
+            child.mAdapter.onTrimMemory(level);
+        }
+    }
+
+    private int toLocalPosition(Child child, int position) {
+        return position - mOffsetIndex.getOffset(child.mIndex);
+    }
+
+    /**
+     * Converts a position in this adapter into a position in one of its children
+     * @param adapter The child adapter that the position is expected to belong to
+     * @param position A position in this adapter
+     * @return The equivalent position in the child, or {@link RecyclerView#NO_POSITION} if the
+     *         position belongs to a different child
+     */
+    int getLocalPosition(HeterogeneousAdapter adapter, int position) {
+        int index = mOffsetIndex.findSection(position);
+        if (index == -1 || mChildren.get(index).mAdapter != adapter) {
+            return RecyclerView.NO_POSITION;
+        }
+        return position - mOffsetIndex.getOffset(index);
+    }
+
+    @Override
+    public void setHasStableIds(boolean hasStableIds) {
+        if (hasStableIds) {
+            for (Child child : mChildren) {
+                if (!child.mAdapter.hasStableIds()) {
+                    throw new IllegalStateException("Every child must have stable IDs before "
+                            + "enabling stable IDs");
+                }
+            }
+        }
+        super.setHasStableIds(hasStableIds);
+    }
+
+    @Override
+    public int getItemCount() {
+        return mOffsetIndex.getTotal();
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        Child child = getChildForPosition(position);
+        int localType = child.mAdapter.getItemViewType(toLocalPosition(child, position));
+
+        int viewType = child.mOuterViewTypes.get(localType, RecyclerView.INVALID_TYPE);
+        if (viewType == RecyclerView.INVALID_TYPE) {
+            viewType = mNextViewType++;
+            child.mOuterViewTypes.put(localType, viewType);
+            mViewTypes.put(viewType, new ViewTypeMapping(child, localType));
+        }
+        return viewType;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        Child child = getChildForPosition(position);
+        long id = child.mAdapter.getItemId(toLocalPosition(child, position));
+        if (id == RecyclerView.NO_ID) {
+            return RecyclerView.NO_ID;
+        }
+        return id ^ ((long) child.mId << CHILD_ID_SHIFT);
+    }
+
+    @Override
+    public EnhancedViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        ViewTypeMapping mapping = mViewTypes.get(viewType);
+        return mapping.mChild.mAdapter.onCreateViewHolder(parent, mapping.mLocalType);
+    }
+
+    @Override
+    public void onBindViewHolder(EnhancedViewHolder holder, int position) {
+        Child child = getChildForPosition(position);
+        holder.setParentAdapter(this);
+        child.mAdapter.onBindViewHolder(holder, toLocalPosition(child, position));
+    }
+
+    @Override
+    public void onBindViewHolder(EnhancedViewHolder holder, int position, List<Object> payloads) {
+        Child child = getChildForPosition(position);
+        holder.setParentAdapter(this);
+        child.mAdapter.onBindViewHolder(holder, toLocalPosition(child, position), payloads);
+    }
+
+    private HeterogeneousAdapter getAdapterForHolder(RecyclerView.ViewHolder holder) {
+        ViewTypeMapping mapping = mViewTypes.get(holder.getItemViewType());
+        return (mapping == null) ? null : mapping.mChild.mAdapter;
+    }
+
+    @Override
+    public void onViewRecycled(EnhancedViewHolder holder) {
+        HeterogeneousAdapter adapter = getAdapterForHolder(holder);
+        if (adapter != null) {
+            adapter.onViewRecycled(holder);
+        }
+    }
+
+    @Override
+    public boolean onFailedToRecycleView(EnhancedViewHolder holder) {
+        HeterogeneousAdapter adapter = getAdapterForHolder(holder);
+        return adapter != null && adapter.onFailedToRecycleView(holder);
+    }
+
+    @Override
+    public void onViewAttachedToWindow(EnhancedViewHolder holder) {
+        HeterogeneousAdapter adapter = getAdapterForHolder(holder);
+        if (adapter != null) {
+            adapter.onViewAttachedToWindow(holder);
+        }
+    }
+
+    @Override
+    public void onViewDetachedFromWindow(EnhancedViewHolder holder) {
+        HeterogeneousAdapter adapter = getAdapterForHolder(holder);
+        if (adapter != null) {
+            adapter.onViewDetachedFromWindow(holder);
+        }
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        mRecyclerViews.add(recyclerView);
+        for (Child child : mChildren) {
+            child.mAdapter.onAttachedToRecyclerView(recyclerView);
+        }
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView);
+        mRecyclerViews.remove(recyclerView);
+        for (Child child : mChildren) {
+            child.mAdapter.onDetachedFromRecyclerView(recyclerView);
+        }
+    }
+
+    private static final class ViewTypeMapping {
+
+        private final Child mChild;
+        private final int mLocalType;
+
+        ViewTypeMapping(Child child, int localType) {
+            mChild = child;
+            mLocalType = localType;
+        }
+    }
+
+    /**
+     * Holds the state of a single child adapter, and translates the child's notifications into
+     * notifications for the outer adapter
+     */
+    private final class Child extends RecyclerView.AdapterDataObserver {
+
+        private final HeterogeneousAdapter mAdapter;
+
+        /**
+         * A unique value for this child, mixed into item IDs so that children with the same item
+         * IDs don't collide
+         */
+        private final int mId;
+
+        /**
+         * Maps this child's view types to the view types of the outer adapter
+         */
+        private final SparseIntArray mOuterViewTypes;
+
+        /**
+         * The index of this child in {@link #mChildren}
+         */
+        private int mIndex;
+
+        Child(HeterogeneousAdapter adapter, int id) {
+            mAdapter = adapter;
+            mId = id;
+            mOuterViewTypes = new SparseIntArray();
+        }
+
+        private int getOffset() {
+            return mOffsetIndex.getOffset(mIndex);
+        }
+
+        private void resize(int delta) {
+            mOffsetIndex.setSize(mIndex, mOffsetIndex.getSize(mIndex) + delta);
+        }
+
+        @Override
+        public void onChanged() {
+            int offset = getOffset();
+            int oldCount = mOffsetIndex.getSize(mIndex);
+            int newCount = mAdapter.getItemCount();
+            mOffsetIndex.setSize(mIndex, newCount);
+
+            int common = Math.min(oldCount, newCount);
+            if (common > 0) {
+                notifyItemRangeChanged(offset, common);
+            }
+            if (newCount > oldCount) {
+                notifyItemRangeInserted(offset + oldCount, newCount - oldCount);
+            } else if (oldCount > newCount) {
+                notifyItemRangeRemoved(offset + newCount, oldCount - newCount);
+            }
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            notifyItemRangeChanged(getOffset() + positionStart, itemCount);
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount, Object payload) {
+            notifyItemRangeChanged(getOffset() + positionStart, itemCount, payload);
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            resize(itemCount);
+            notifyItemRangeInserted(getOffset() + positionStart, itemCount);
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            resize(-itemCount);
+            notifyItemRangeRemoved(getOffset() + positionStart, itemCount);
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            // RecyclerView only supports moving one item at a time, so a block of items is moved
+            // one item at a time in an order that keeps the block together
+            int offset = getOffset();
+            for (int i = 0; i < itemCount; i++) {
+                if (fromPosition < toPosition) {
+                    notifyItemMoved(offset + fromPosition, offset + toPosition + itemCount - 1);
+                } else {
+                    notifyItemMoved(offset + fromPosition + i, offset + toPosition + i);
+                }
+            }
+        }
+    }
+}
@@ -71,6 +71,7 @@ public class DragDropAdapter extends HeterogeneousAdapter {
     private void drag(int from, int to) {
         int leadingViews = getLeadingViewCount(mDragSection.getTypeId());
         mDragSection.onDrag(from - leadingViews, to - leadingViews);
+        mDragSection.remapSelectionForMove(from - leadingViews, to - leadingViews);
         notifyItemMoved(from, to);
     }
 
@@ -1,5 +1,6 @@
 package com.marverenic.adapter;
 
+import android.support.annotation.Nullable;
 import android.support.v7.widget.RecyclerView;
 import android.view.View;
 
@@ -11,6 +12,24 @@ import android.view.View;
  */
 public abstract class EnhancedViewHolder<Type> extends RecyclerView.ViewHolder {
 
+    /**
+     * The adapter that most recently bound this ViewHolder
+     */
+    private HeterogeneousAdapter mAdapter;
+
+    /**
+     * The {@link ConcatenatedAdapter} that {@link #mAdapter} is nested in, if any. Positions
+     * reported by {@link #getAdapterPosition()} belong to this adapter instead of
+     * {@link #mAdapter}.
+     */
+    private ConcatenatedAdapter mParentAdapter;
+
+    /**
+     * The view type that the adapter that created this ViewHolder used, which differs from
+     * {@link #getItemViewType()} when that adapter is nested in a {@link ConcatenatedAdapter}
+     */
+    private int mLocalViewType = RecyclerView.INVALID_TYPE;
+
     /**
      * @param itemView The view that this ViewHolder will manage
      */
@@ -18,6 +37,95 @@ public abstract class EnhancedViewHolder<Type> extends RecyclerView.ViewHolder {
         super(itemView);
     }
 
+    void setAdapter(HeterogeneousAdapter adapter) {
+        mAdapter = adapter;
+    }
+
+    void setParentAdapter(ConcatenatedAdapter parentAdapter) {
+        mParentAdapter = parentAdapter;
+    }
+
+    void setLocalViewType(int viewType) {
+        mLocalViewType = viewType;
+    }
+
+    int getLocalViewType() {
+        return mLocalViewType;
+    }
+
+    /**
+     * Gets the current index of this ViewHolder's item in its section. Unlike the position passed
+     * to {@link #onUpdate(Object, int)}, this value accounts for any items that have been
+     * inserted, removed, or moved since this ViewHolder was bound, including changes that
+     * haven't been laid out yet. Use this method in click listeners instead of caching the
+     * position from {@link #onUpdate(Object, int)}.
+     * @return The index of this ViewHolder's item in its section, or
+     *         {@link RecyclerView#NO_POSITION} if this ViewHolder isn't bound or its item has been
+     *         removed
+     * @see RecyclerView.ViewHolder#getAdapterPosition()
+     */
+    public final int getPositionInSection() {
+        int position = getLocalAdapterPosition();
+        if (mAdapter == null || position == RecyclerView.NO_POSITION) {
+            return RecyclerView.NO_POSITION;
+        }
+        return mAdapter.getPositionInSection(position);
+    }
+
+    /**
+     * Gets the section that this ViewHolder's item currently belongs to
+     * @return The section holding this ViewHolder's item, or {@code null} if this ViewHolder
+     *         isn't bound or its item has been removed
+     * @see #getPositionInSection()
+     */
+    @Nullable
+    public final HeterogeneousAdapter.Section getSection() {
+        int position = getLocalAdapterPosition();
+        if (mAdapter == null || position == RecyclerView.NO_POSITION) {
+            return null;
+        }
+        return mAdapter.getSectionForPosition(position);
+    }
+
+    /**
+     * Checks whether this ViewHolder's item is selected. This may be called from
+     * {@link #onUpdate(Object, int)} to show the selection state of a newly bound item.
+     * @return true if this ViewHolder's item is selected
+     * @see HeterogeneousAdapter#setSelected(HeterogeneousAdapter.Section, int, boolean)
+     */
+    public final boolean isItemSelected() {
+        int position = getLocalAdapterPosition();
+        if (mAdapter == null || position == RecyclerView.NO_POSITION) {
+            return false;
+        }
+        return mAdapter.isSelected(position);
+    }
+
+    /**
+     * @return The position of this ViewHolder's item in {@link #mAdapter}, which is offset from
+     *         {@link #getAdapterPosition()} when that adapter is nested in a
+     *         {@link ConcatenatedAdapter}
+     */
+    private int getLocalAdapterPosition() {
+        int position = getAdapterPosition();
+        if (mParentAdapter == null || position == RecyclerView.NO_POSITION) {
+            return position;
+        }
+        return mParentAdapter.getLocalPosition(mAdapter, position);
+    }
+
+    /**
+     * Called when only the selection state of this ViewHolder's item has changed. Override this
+     * method to update the selection state without rebinding the entire item. The default
+     * implementation returns false, which rebinds the item with
+     * {@link #onUpdate(Object, int)}.
+     * @param selected Whether this ViewHolder's item is now selected
+     * @return true if the change was handled, false to rebind the item
+     */
+    public boolean onSelectionChanged(boolean selected) {
+        return false;
+    }
+
     /**
      * Called when this ViewHolder has been recycled and needs to be populated with new data
      * @param item The item to show in this ViewHolder
@@ -25,4 +133,26 @@ public abstract class EnhancedViewHolder<Type> extends RecyclerView.ViewHolder {
      */
     public abstract void onUpdate(Type item, int position);
 
+    /**
+     * Called instead of {@link #onUpdate(Object, int)} when this ViewHolder belongs to a
+     * {@link HeterogeneousAdapter.IntListSection}, so that the value isn't boxed. The default
+     * implementation does nothing.
+     * @param item The value to show in this ViewHolder
+     * @param position The index of this item in the adapter's data set
+     */
+    public void onUpdateInt(int item, int position) {
+
+    }
+
+    /**
+     * Called instead of {@link #onUpdate(Object, int)} when this ViewHolder belongs to a
+     * {@link HeterogeneousAdapter.LongListSection}, so that the value isn't boxed. The default
+     * implementation does nothing.
+     * @param item The value to show in this ViewHolder
+     * @param position The index of this item in the adapter's data set
+     */
+    public void onUpdateLong(long item, int position) {
+
+    }
+
 }
@@ -0,0 +1,383 @@
+package com.marverenic.adapter;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.MotionEvent;
+import android.view.View;
+
+/**
+ * A draggable scroll thumb for a {@link RecyclerView} backed by a {@link HeterogeneousAdapter}.
+ * While the thumb is dragged, the label of the section under it (from
+ * {@link HeterogeneousAdapter.Section#getSectionLabel()}) is drawn next to it.
+ *
+ * Thumb positions are resolved to sections with a binary search over the adapter's cached
+ * section offsets. If every visible section declares
+ * {@link HeterogeneousAdapter.Section#getFixedItemHeight()}, scroll extents are computed from
+ * those heights so that the thumb tracks the exact scroll position without measuring any rows.
+ * Otherwise, every item is assumed to have the same height.
+ */
+public class FastScroller extends RecyclerView.ItemDecoration
+        implements RecyclerView.OnItemTouchListener {
+
+    private final Drawable mThumb;
+    private final Rect mLabelPadding;
+
+    private Drawable mLabelBackground;
+    private Paint mLabelPaint;
+
+    private RecyclerView mRecyclerView;
+    private HeterogeneousAdapter mAdapter;
+    private RecyclerView.AdapterDataObserver mObserver;
+    private RecyclerView.OnScrollListener mScrollListener;
+
+    private boolean mDragging;
+    private float mThumbFraction;
+
+    /**
+     * The pixel offset where each section starts when all items have fixed heights. Contains one
+     * more entry than the number of sections, with the last holding the total height. Rebuilt
+     * lazily when the adapter changes.
+     */
+    private long[] mPixelOffsets;
+    private boolean mPixelOffsetsValid;
+    private boolean mFixedHeights;
+
+    /**
+     * @param thumb The drawable to use as the scroll thumb. Its intrinsic size is used as the
+     *              size of the thumb.
+     */
+    public FastScroller(@NonNull Drawable thumb) {
+        mThumb = thumb;
+        mLabelPadding = new Rect();
+        mPixelOffsets = new long[1];
+    }
+
+    /**
+     * Enables section labels while the thumb is being dragged
+     * @param background The background to draw behind a label. Its padding is used to inset the
+     *                   text.
+     * @param textPaint The paint to draw the label's text with
+     */
+    public void setLabelStyle(@Nullable Drawable background, @Nullable Paint textPaint) {
+        mLabelBackground = background;
+        mLabelPaint = textPaint;
+        mLabelPadding.set(0, 0, 0, 0);
+        if (background != null) {
+            background.getPadding(mLabelPadding);
+        }
+    }
+
+    /**
+     * Attaches this FastScroller to a RecyclerView. The adapter must already be set.
+     * @param recyclerView The RecyclerView to draw the thumb on
+     */
+    public void attachToRecyclerView(@NonNull RecyclerView recyclerView) {
+        if (!(recyclerView.getAdapter() instanceof HeterogeneousAdapter)) {
+            throw new IllegalArgumentException("FastScroller can only be used with a "
+                    + "RecyclerView whose adapter is a HeterogeneousAdapter");
+        }
+
+        detachFromRecyclerView();
+        mRecyclerView = recyclerView;
+        mAdapter = (HeterogeneousAdapter) recyclerView.getAdapter();
+        mPixelOffsetsValid = false;
+
+        mObserver = new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                mPixelOffsetsValid = false;
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                mPixelOffsetsValid = false;
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                mPixelOffsetsValid = false;
+            }
+
+            @Override
+            public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+                mPixelOffsetsValid = false;
+            }
+
+            @Override
+            public void onItemRangeChanged(int positionStart, int itemCount) {
+                // Sections can change their fixed item heights when their items are rebound
+                mPixelOffsetsValid = false;
+            }
+        };
+        mScrollListener = new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (!mDragging) {
+                    mThumbFraction = computeScrollFraction();
+                }
+            }
+        };
+
+        mAdapter.registerAdapterDataObserver(mObserver);
+        mRecyclerView.addOnScrollListener(mScrollListener);
+        mRecyclerView.addItemDecoration(this);
+        mRecyclerView.addOnItemTouchListener(this);
+    }
+
+    /**
+     * Removes this FastScroller from the RecyclerView it was attached to, if any
+     */
+    public void detachFromRecyclerView() {
+        if (mRecyclerView == null) {
+            return;
+        }
+
+        mAdapter.unregisterAdapterDataObserver(mObserver);
+        mRecyclerView.removeOnScrollListener(mScrollListener);
+        mRecyclerView.removeItemDecoration(this);
+        mRecyclerView.removeOnItemTouchListener(this);
+        mRecyclerView = null;
+        mAdapter = null;
+        mDragging = false;
+    }
+
+    /**
+     * Scrolls so that the first item of a section is at the top of the list
+     * @param sectionIndex The index of the section to jump to
+     * @throws IndexOutOfBoundsException If there is no section at this index
+     */
+    public void scrollToSection(int sectionIndex) {
+        if (sectionIndex < 0 || sectionIndex >= mAdapter.getSectionCount()) {
+            throw new IndexOutOfBoundsException("Cannot scroll to section " + sectionIndex
+                    + " in an adapter with " + mAdapter.getSectionCount() + " sections");
+        }
+        scrollToPosition(mAdapter.getSectionStart(sectionIndex), 0);
+    }
+
+    private void scrollToPosition(int position, int offset) {
+        RecyclerView.LayoutManager layoutManager = mRecyclerView.getLayoutManager();
+        if (layoutManager instanceof LinearLayoutManager) {
+            ((LinearLayoutManager) layoutManager).scrollToPositionWithOffset(position, -offset);
+        } else {
+            mRecyclerView.scrollToPosition(position);
+        }
+    }
+
+    private void rebuildPixelOffsets() {
+        if (mPixelOffsetsValid) {
+            return;
+        }
+
+        int sectionCount = mAdapter.getSectionCount();
+        if (mPixelOffsets.length < sectionCount + 1) {
+            mPixelOffsets = new long[sectionCount + 1];
+        }
+
+        mFixedHeights = true;
+        long offset = 0;
+        int sectionStart = 0;
+        for (int i = 0; i < sectionCount; i++) {
+            int sectionEnd = mAdapter.getSectionStart(i + 1);
+            int size = sectionEnd - sectionStart;
+            int height = mAdapter.getSection(i).getFixedItemHeight();
+
+            if (size > 0 && height <= 0) {
+                mFixedHeights = false;
+            }
+
+            mPixelOffsets[i] = offset;
+            offset += (long) size * height;
+            sectionStart = sectionEnd;
+        }
+        mPixelOffsets[sectionCount] = offset;
+        mPixelOffsetsValid = true;
+    }
+
+    /**
+     * Finds the section that contains a pixel offset using a binary search
+     * @return The index of the first section that ends after the given offset
+     */
+    private int findSectionAtPixel(long pixel) {
+        int low = 0;
+        int high = mAdapter.getSectionCount() - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mPixelOffsets[mid + 1] > pixel) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    private int getViewportHeight() {
+        return mRecyclerView.getHeight() - mRecyclerView.getPaddingTop()
+                - mRecyclerView.getPaddingBottom();
+    }
+
+    private boolean canScroll() {
+        if (mAdapter == null || mAdapter.getDataSize() == 0) {
+            return false;
+        }
+        rebuildPixelOffsets();
+        if (mFixedHeights) {
+            return mPixelOffsets[mAdapter.getSectionCount()] > getViewportHeight();
+        }
+        return mRecyclerView.computeVerticalScrollRange() > getViewportHeight();
+    }
+
+    /**
+     * @return How far the list is scrolled, from {@code 0} at the top to {@code 1} at the bottom
+     */
+    private float computeScrollFraction() {
+        if (!canScroll() || mRecyclerView.getChildCount() == 0) {
+            return 0;
+        }
+
+        if (!mFixedHeights) {
+            int range = mRecyclerView.computeVerticalScrollRange()
+                    - mRecyclerView.computeVerticalScrollExtent();
+            return (range <= 0) ? 0 : mRecyclerView.computeVerticalScrollOffset() / (float) range;
+        }
+
+        View firstChild = mRecyclerView.getChildAt(0);
+        int position = mRecyclerView.getChildAdapterPosition(firstChild);
+        int section = mAdapter.getSectionIndexForPosition(position);
+        if (section == -1) {
+            return mThumbFraction;
+        }
+
+        int height = mAdapter.getSection(section).getFixedItemHeight();
+        long scrolled = mPixelOffsets[section]
+                + (long) (position - mAdapter.getSectionStart(section)) * height
+                + mRecyclerView.getPaddingTop() - firstChild.getTop();
+        long range = mPixelOffsets[mAdapter.getSectionCount()] - getViewportHeight();
+        return Math.max(0, Math.min(1, scrolled / (float) range));
+    }
+
+    /**
+     * Scrolls the list to match a thumb position
+     * @param fraction The thumb position, from {@code 0} at the top to {@code 1} at the bottom
+     */
+    private void scrollToFraction(float fraction) {
+        mThumbFraction = fraction;
+        rebuildPixelOffsets();
+
+        if (mFixedHeights) {
+            long range = mPixelOffsets[mAdapter.getSectionCount()] - getViewportHeight();
+            long pixel = (long) (fraction * range);
+            int section = findSectionAtPixel(pixel);
+            int height = mAdapter.getSection(section).getFixedItemHeight();
+            long intoSection = pixel - mPixelOffsets[section];
+
+            int item = (int) (intoSection / height);
+            int offset = (int) (intoSection % height);
+            scrollToPosition(mAdapter.getSectionStart(section) + item, offset);
+        } else {
+            int lastPosition = mAdapter.getDataSize() - 1;
+            scrollToPosition(Math.round(fraction * lastPosition), 0);
+        }
+    }
+
+    @Nullable
+    private CharSequence getCurrentLabel() {
+        rebuildPixelOffsets();
+
+        int section;
+        if (mFixedHeights) {
+            long range = mPixelOffsets[mAdapter.getSectionCount()] - getViewportHeight();
+            section = findSectionAtPixel((long) (mThumbFraction * range));
+        } else {
+            int position = Math.round(mThumbFraction * (mAdapter.getDataSize() - 1));
+            section = mAdapter.getSectionIndexForPosition(position);
+        }
+
+        return (section == -1) ? null : mAdapter.getSection(section).getSectionLabel();
+    }
+
+    private int getThumbTop() {
+        int travel = getViewportHeight() - mThumb.getIntrinsicHeight();
+        return mRecyclerView.getPaddingTop() + (int) (mThumbFraction * travel);
+    }
+
+    @Override
+    public void onDrawOver(Canvas c, RecyclerView parent, RecyclerView.State state) {
+        if (!canScroll()) {
+            return;
+        }
+
+        int thumbWidth = mThumb.getIntrinsicWidth();
+        int thumbHeight = mThumb.getIntrinsicHeight();
+        int thumbLeft = parent.getWidth() - thumbWidth;
+        int thumbTop = getThumbTop();
+        mThumb.setBounds(thumbLeft, thumbTop, thumbLeft + thumbWidth, thumbTop + thumbHeight);
+        mThumb.draw(c);
+
+        if (!mDragging || mLabelPaint == null) {
+            return;
+        }
+
+        CharSequence label = getCurrentLabel();
+        if (label == null) {
+            return;
+        }
+
+        String text = label.toString();
+        float textSize = mLabelPaint.getTextSize();
+        int labelWidth = (int) mLabelPaint.measureText(text)
+                + mLabelPadding.left + mLabelPadding.right;
+        int labelHeight = (int) textSize + mLabelPadding.top + mLabelPadding.bottom;
+        int labelRight = thumbLeft;
+        int labelTop = thumbTop + (thumbHeight - labelHeight) / 2;
+
+        if (mLabelBackground != null) {
+            mLabelBackground.setBounds(labelRight - labelWidth, labelTop,
+                    labelRight, labelTop + labelHeight);
+            mLabelBackground.draw(c);
+        }
+        c.drawText(text, labelRight - labelWidth + mLabelPadding.left,
+                labelTop + mLabelPadding.top + textSize, mLabelPaint);
+    }
+
+    @Override
+    public boolean onInterceptTouchEvent(RecyclerView rv, MotionEvent e) {
+        if (e.getActionMasked() == MotionEvent.ACTION_DOWN
+                && e.getX() >= rv.getWidth() - mThumb.getIntrinsicWidth() && canScroll()) {
+            mDragging = true;
+            onTouchEvent(rv, e);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void onTouchEvent(RecyclerView rv, MotionEvent e) {
+        switch (e.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+            case MotionEvent.ACTION_MOVE:
+                float travel = getViewportHeight() - mThumb.getIntrinsicHeight();
+                float thumbCenter = e.getY() - rv.getPaddingTop()
+                        - mThumb.getIntrinsicHeight() / 2f;
+                scrollToFraction(Math.max(0, Math.min(1, thumbCenter / travel)));
+                rv.invalidate();
+                break;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                mDragging = false;
+                rv.invalidate();
+                break;
+        }
+    }
+
+    @Override
+    public void onRequestDisallowInterceptTouchEvent(boolean disallowIntercept) {
+
+    }
+}
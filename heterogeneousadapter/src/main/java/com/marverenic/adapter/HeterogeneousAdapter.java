@@ -1,13 +1,24 @@
 package com.marverenic.adapter;
 
+import android.content.ComponentCallbacks2;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
 import android.support.v7.widget.RecyclerView;
 import android.util.SparseArray;
+import android.util.SparseIntArray;
 import android.view.ViewGroup;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Implementation of {@link android.support.v7.widget.RecyclerView.Adapter} designed for data sets
@@ -28,14 +39,51 @@ public class HeterogeneousAdapter extends RecyclerView.Adapter<EnhancedViewHolde
 
     private static final long EMPTY_STATE_ID = -2;
 
+    /**
+     * The payload sent with change notifications when only the selection state of an item has
+     * changed. See {@link EnhancedViewHolder#onSelectionChanged(boolean)}.
+     */
+    public static final Object PAYLOAD_SELECTION = new Object();
+
+    /**
+     * The payload sent with change notifications when placeholders are replaced with a section's
+     * items. See {@link #clearPlaceholders(Section)}.
+     */
+    public static final Object PAYLOAD_PLACEHOLDER_REPLACED = new Object();
+
     /**
      * Used in {@link #getItemViewType(int)} to denote that the empty state should be shown
      */
     private static final int EMPTY_TYPE = -2;
 
+    /**
+     * Used in {@link #getItemViewType(int)} to denote that a {@link Placeholder} should be shown
+     */
+    static final int PLACEHOLDER_TYPE = -3;
+
+    /**
+     * Denotes that a {@link RecycledViewPoolPolicy} hasn't sized a section's pool
+     */
+    private static final int NO_POOL_SIZE = -1;
+
+    /**
+     * The default number of items around a bound position in which {@link LazySection LazySections}
+     * are materialized
+     */
+    private static final int DEFAULT_LAZY_SECTION_DISTANCE = 20;
+
+    /**
+     * The largest section that {@link #setSections(List)} moves one item at a time. Larger
+     * sections are removed and reinserted instead, since every move is animated separately.
+     */
+    private static final int MAX_ITEM_MOVES = 8;
+
     private List<Section> mSections;
     private SparseArray<Section> mSectionIdMap;
     private EmptyState mEmptyState;
+    private Placeholder mPlaceholder;
+    private SectionFilter mFilter;
+    private UpdateScheduler mUpdateScheduler;
 
     /**
      * The number of times {@link #addSection(Section)} and {@link #addSection(Section, int)} have
@@ -44,20 +92,74 @@ public class HeterogeneousAdapter extends RecyclerView.Adapter<EnhancedViewHolde
      */
     private int mSectionBindingCount;
 
+    /**
+     * The {@link RecyclerView RecyclerViews} that this adapter is currently attached to
+     */
+    private List<RecyclerView> mRecyclerViews;
+
+    private RecycledViewPoolPolicy mPoolPolicy;
+    private JankMonitor mJankMonitor;
+
     /**
      * A reused Coordinate to avoid GC overhead when calling
      * {@link #lookupCoordinates(int, Coordinate))
      */
     private Coordinate mCoordinate;
 
+    /**
+     * Cached offsets of each section. This index is rebuilt lazily after any change notification
+     * that didn't originate from this adapter, and is updated in place for changes that this
+     * adapter makes itself.
+     */
+    private SectionOffsetIndex mOffsetIndex;
+    private boolean mOffsetIndexValid;
+    private OffsetInvalidationObserver mOffsetInvalidationObserver;
+
+    /**
+     * Maps each section's type ID to its index in {@link #mSections}. Rebuilt alongside
+     * {@link #mOffsetIndex}.
+     */
+    private SparseIntArray mSectionIndices;
+
+    /**
+     * Set while this adapter dispatches a notification for a change that has already been applied
+     * to {@link #mOffsetIndex}, so that the notification doesn't invalidate the index
+     */
+    private boolean mDispatchingIndexedChange;
+
+    private Handler mHandler;
+    private int mLazySectionDistance;
+
+    /**
+     * The number of attached {@link LazySection LazySections} that haven't been materialized
+     */
+    private int mPendingLazySectionCount;
+
     /**
      * Sets up a new HeterogeneousAdapter with no children
      */
     public HeterogeneousAdapter() {
         mSections = new ArrayList<>();
         mSectionIdMap = new SparseArray<>();
+        mRecyclerViews = new ArrayList<>();
         mCoordinate = new Coordinate();
         mSectionBindingCount = 0;
+        mLazySectionDistance = DEFAULT_LAZY_SECTION_DISTANCE;
+        mOffsetIndex = new SectionOffsetIndex();
+        mSectionIndices = new SparseIntArray();
+
+        mOffsetInvalidationObserver = new OffsetInvalidationObserver();
+        super.registerAdapterDataObserver(mOffsetInvalidationObserver);
+    }
+
+    @Override
+    public void registerAdapterDataObserver(RecyclerView.AdapterDataObserver observer) {
+        super.registerAdapterDataObserver(observer);
+
+        // Observers are notified in the reverse order that they were registered. Move the offset
+        // observer to the end so that other observers never read stale offsets.
+        super.unregisterAdapterDataObserver(mOffsetInvalidationObserver);
+        super.registerAdapterDataObserver(mOffsetInvalidationObserver);
     }
 
     /**
@@ -87,342 +189,2490 @@ public class HeterogeneousAdapter extends RecyclerView.Adapter<EnhancedViewHolde
      * @return this Adapter, for chain building
      */
     public HeterogeneousAdapter addSection(@NonNull Section section, int index) {
-        section.setTypeId(getNextSectionId());
         mSections.add(index, section);
-        mSectionIdMap.put(section.getTypeId(), section);
+        registerSection(section);
         notifyDataSetChanged();
+
+        if (isAttachedToRecyclerView()) {
+            section.onAttached(this);
+        }
         return this;
     }
 
+    /**
+     * Assigns a new type ID to a section that was just added to {@link #mSections}
+     */
+    private void registerSection(Section section) {
+        section.setTypeId(getNextSectionId());
+        mSectionIdMap.put(section.getTypeId(), section);
+        if (section instanceof ListSection) {
+            ((ListSection) section).refilter(getFilterQuery());
+        }
+        if (section instanceof LazySection) {
+            LazySection lazySection = (LazySection) section;
+            if (lazySection.isMaterialized()) {
+                // The real section may have been created while attached to another adapter
+                lazySection.mDelegate.setTypeId(section.getTypeId());
+            }
+
+            if (!lazySection.mReconciled) {
+                mPendingLazySectionCount++;
+                // Empty sections are never bound, so they have to be materialized right away
+                if (lazySection.mEstimatedCount == 0) {
+                    postLazySectionReconciliation(lazySection);
+                }
+            }
+        }
+    }
+
     /**
      * Removes a section in a specified index
      * @param index the index to remove
      */
     public void removeSection(int index) {
         Section removed = mSections.remove(index);
-        mSectionIdMap.remove(removed.getTypeId());
+        unregisterSection(removed);
         notifyDataSetChanged();
+        releaseSection(removed);
     }
 
     /**
-     * Sets the {@link EmptyState} to be displayed when there are no views to otherwise be displayed
-     * in this Adapter. This may occur either because no data has been loaded (and all Sections are
-     * empty), or because no Sections have been added.
-     * @param emptyState The empty state to show when there are no items to be shown in this list
-     *                   {@code null} to disable showing an empty state when the Adapter is empty,
-     *                   and to keep it completely blank.
+     * Forgets the type ID of a section that was just removed from {@link #mSections}
      */
-    public void setEmptyState(@Nullable EmptyState emptyState) {
-        mEmptyState = emptyState;
+    private void unregisterSection(Section section) {
+        mSectionIdMap.remove(section.getTypeId());
+        if (section instanceof LazySection && !((LazySection) section).mReconciled) {
+            mPendingLazySectionCount--;
+        }
     }
 
     /**
-     * Converts a position in the entire data set to a Coordinate in the section list. This method
-     * returns two values into the provided {@code Coordinate} so that it can be reused to save GC
-     * overhead.
+     * Ends the viewport and attachment lifecycles of a section that was removed
+     */
+    private void releaseSection(Section section) {
+        // The removed section's views will be detached after it has left the adapter
+        if (section.mAttachedViewCount > 0) {
+            section.mAttachedViewCount = 0;
+            section.onExitViewport();
+        }
+
+        // Type IDs are never reused, so recycled views of this section will never be used again
+        if (section.mPoolViewType != RecyclerView.INVALID_TYPE) {
+            setMaxRecycledViews(section.mPoolViewType, 0);
+            section.mPoolViewType = RecyclerView.INVALID_TYPE;
+            section.mPoolSize = NO_POOL_SIZE;
+            section.mPeakAttachedViewCount = 0;
+        }
+
+        if (isAttachedToRecyclerView()) {
+            section.onDetached(this);
+        }
+    }
+
+    /**
+     * Replaces every section in this adapter. Sections are matched by identity, so sections that
+     * appear in both the old and new lists keep their view type and ViewHolders. Sections that
+     * were removed, added, or reordered are dispatched as range removals, insertions, and moves,
+     * which allows switching between configurations of sections to be animated. Reordered
+     * sections with more than a few items are dispatched as a removal and an insertion instead of
+     * one move per item.
      *
-     * @param position The position in the entire data set to lookup a coordinate of
-     * @param coordinate {@code Coordinate} object to put the result into
+     * If a retained section's size has changed since the last notification, the difference is
+     * dispatched as an insertion or removal at the end of that section.
+     *
+     * @param sections The new sections of this adapter, in order. Each section may only appear
+     *                 once.
      */
-    protected final void lookupCoordinates(int position, Coordinate coordinate) {
-        int runningTotal = 0;
+    public void setSections(@NonNull List<? extends Section> sections) {
+        Map<Section, Integer> oldIndices = new IdentityHashMap<>();
         for (int i = 0; i < mSections.size(); i++) {
-            int sectionTotal = mSections.get(i).getItemCount(this);
-            if (position < runningTotal + sectionTotal) {
-                coordinate.setSection(i);
-                coordinate.setItemIndex(position - runningTotal);
-                return;
+            oldIndices.put(mSections.get(i), i);
+        }
+
+        Set<Section> newSections =
+                Collections.newSetFromMap(new IdentityHashMap<Section, Boolean>());
+        for (Section section : sections) {
+            if (!newSections.add(section)) {
+                throw new IllegalArgumentException("A section can only be added once");
+            }
+        }
+
+        // Sizes as of the last notification, which is the state that observers expect
+        SectionOffsetIndex offsets = getOffsetIndex();
+        int oldTotal = offsets.getTotal();
+        List<Section> working = new ArrayList<>(mSections);
+        List<Integer> workingSizes = new ArrayList<>(working.size());
+        for (int i = 0; i < working.size(); i++) {
+            workingSizes.add(offsets.getSize(i));
+        }
+
+        List<Section> removed = new ArrayList<>();
+        for (Section section : mSections) {
+            if (!newSections.contains(section)) {
+                unregisterSection(section);
+                removed.add(section);
+            }
+        }
+
+        List<Section> added = new ArrayList<>();
+        for (Section section : sections) {
+            if (!oldIndices.containsKey(section)) {
+                registerSection(section);
+                added.add(section);
+            }
+        }
+
+        mSections.clear();
+        mSections.addAll(sections);
+        mOffsetIndexValid = false;
+
+        if (oldTotal == 0 || getDataSize() == 0) {
+            // The empty state may need to be shown or hidden
+            notifyDataSetChanged();
+        } else {
+            dispatchSectionChanges(working, workingSizes, newSections);
+        }
+
+        for (Section section : removed) {
+            releaseSection(section);
+        }
+
+        if (isAttachedToRecyclerView()) {
+            for (Section section : added) {
+                section.onAttached(this);
             }
-            runningTotal += sectionTotal;
         }
-        coordinate.clear();
     }
 
     /**
-     * Calculates the number of views contained in sections proceeding a given section
-     * @param typeId The ID of the section to get the leading view count of
-     * @return The number of views in this list that are above the first view in the given section
+     * Dispatches the changes needed to turn one list of sections into the current list of
+     * sections
+     * @param working The old sections, which is modified while changes are dispatched
+     * @param workingSizes The number of items that observers expect each old section to have
+     * @param retained The sections that are in {@link #mSections}
      */
-    protected int getLeadingViewCount(int typeId) {
-        int count = 0;
-        for (Section section : mSections) {
-            if (section.getTypeId() == typeId) {
-                break;
+    private void dispatchSectionChanges(List<Section> working, List<Integer> workingSizes,
+                                        Set<Section> retained) {
+        int offset = 0;
+        for (int i = 0; i < working.size(); i++) {
+            offset += workingSizes.get(i);
+        }
+
+        // Remove sections from the bottom up so that earlier offsets stay valid
+        for (int i = working.size() - 1; i >= 0; i--) {
+            int size = workingSizes.get(i);
+            offset -= size;
+            if (!retained.contains(working.get(i))) {
+                working.remove(i);
+                workingSizes.remove(i);
+                if (size > 0) {
+                    notifyItemRangeRemoved(offset, size);
+                }
             }
-            count += section.getItemCount(this);
         }
-        return count;
+
+        offset = 0;
+        for (int i = 0; i < mSections.size(); i++) {
+            Section section = mSections.get(i);
+            int current = (i < working.size()) ? working.indexOf(section) : -1;
+
+            if (current == -1) {
+                working.add(i, section);
+                workingSizes.add(i, 0);
+            } else if (current != i) {
+                int from = offset;
+                for (int j = i; j < current; j++) {
+                    from += workingSizes.get(j);
+                }
+
+                // RecyclerView only supports moving one item at a time
+                int size = workingSizes.get(current);
+                if (size > MAX_ITEM_MOVES) {
+                    notifyItemRangeRemoved(from, size);
+                    notifyItemRangeInserted(offset, size);
+                } else {
+                    for (int k = 0; k < size; k++) {
+                        notifyItemMoved(from + k, offset + k);
+                    }
+                }
+                working.add(i, working.remove(current));
+                workingSizes.add(i, workingSizes.remove(current));
+            }
+
+            int oldSize = workingSizes.get(i);
+            int newSize = section.getVisibleItemCount(this);
+            if (newSize > oldSize) {
+                notifyItemRangeInserted(offset + oldSize, newSize - oldSize);
+            } else if (oldSize > newSize) {
+                notifyItemRangeRemoved(offset + newSize, oldSize - newSize);
+            }
+            workingSizes.set(i, newSize);
+            offset += newSize;
+        }
+    }
+
+    /**
+     * @return true if this adapter is currently set as the adapter of at least one
+     *         {@link RecyclerView}
+     */
+    protected final boolean isAttachedToRecyclerView() {
+        return !mRecyclerViews.isEmpty();
     }
 
     @Override
-    public int getItemViewType(int position) {
-        if (getDataSize() == 0) {
-            return EMPTY_TYPE;
+    public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        mRecyclerViews.add(recyclerView);
+        if (mRecyclerViews.size() == 1) {
+            for (Section section : mSections) {
+                section.onAttached(this);
+            }
+            if (mJankMonitor != null) {
+                mJankMonitor.start();
+            }
         }
 
-        lookupCoordinates(position, mCoordinate);
-        int section = mCoordinate.getSection();
-        return mSections.get(section).getTypeId();
+        RecyclerView.RecycledViewPool pool = recyclerView.getRecycledViewPool();
+        for (Section section : mSections) {
+            if (section.mPoolSize != NO_POOL_SIZE) {
+                pool.setMaxRecycledViews(section.mPoolViewType, section.mPoolSize);
+            }
+        }
     }
 
     @Override
-    public long getItemId(int position) {
-        if (getDataSize() == 0 && mEmptyState != null) {
-            return EMPTY_STATE_ID;
+    public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView);
+        mRecyclerViews.remove(recyclerView);
+        if (mRecyclerViews.isEmpty()) {
+            for (Section section : mSections) {
+                section.onDetached(this);
+            }
+            if (mJankMonitor != null) {
+                mJankMonitor.stop();
+            }
         }
+    }
 
-        lookupCoordinates(position, mCoordinate);
-        int section = mCoordinate.getSection();
-        int item = mCoordinate.getItemIndex();
-
-        int givenId = mSections.get(section).getId(item);
-        int sectionId = mSections.get(section).getTypeId();
+    /**
+     * Sets the policy used to size the {@link RecyclerView.RecycledViewPool} of each section's
+     * view type. Pools are resized as sections show more items at once than they have before.
+     * @param policy The policy to size pools with, or {@code null} to leave pool sizes unchanged
+     */
+    public void setRecycledViewPoolPolicy(@Nullable RecycledViewPoolPolicy policy) {
+        mPoolPolicy = policy;
+        if (policy != null) {
+            for (Section section : mSections) {
+                if (section.mPoolViewType != RecyclerView.INVALID_TYPE) {
+                    updatePoolSize(section);
+                }
+            }
+        }
+    }
 
-        if (givenId == NO_ID) {
-            return RecyclerView.NO_ID;
-        } else {
-            return (long) sectionId << 32 | givenId;
+    private void updatePoolSize(Section section) {
+        int size = mPoolPolicy.getPoolSize(section, section.mPeakAttachedViewCount);
+        if (size != section.mPoolSize) {
+            section.mPoolSize = size;
+            setMaxRecycledViews(section.mPoolViewType, size);
         }
     }
 
-    @Override
-    public EnhancedViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
-        if (viewType == EMPTY_TYPE) {
-            return mEmptyState.createViewHolder(this, parent);
+    private void setMaxRecycledViews(int viewType, int max) {
+        for (RecyclerView recyclerView : mRecyclerViews) {
+            recyclerView.getRecycledViewPool().setMaxRecycledViews(viewType, max);
         }
-        return mSectionIdMap.get(viewType).createViewHolder(this, parent);
     }
 
-    @Override
-    @SuppressWarnings("unchecked")
-    public void onBindViewHolder(EnhancedViewHolder holder, int position) {
-        if (holder instanceof EmptyState.EmptyViewHolder) {
-            ((EmptyState.EmptyViewHolder) holder).onUpdate(null, position);
-        } else {
-            lookupCoordinates(position, mCoordinate);
-            int section = mCoordinate.getSection();
-            int item = mCoordinate.getItemIndex();
-            holder.onUpdate(mSections.get(section).get(item), item);
+    /**
+     * Sets a monitor that attributes slow frames to the sections whose ViewHolders were created
+     * or bound during them. Frames are only monitored while this adapter is attached to a
+     * RecyclerView.
+     * @param monitor The monitor to report to, or {@code null} to stop monitoring frames
+     */
+    public void setJankMonitor(@Nullable JankMonitor monitor) {
+        if (monitor == mJankMonitor) {
+            return;
+        }
+
+        if (mJankMonitor != null && isAttachedToRecyclerView()) {
+            mJankMonitor.stop();
+        }
+        mJankMonitor = monitor;
+        if (monitor != null && isAttachedToRecyclerView()) {
+            monitor.start();
         }
     }
 
     /**
-     * Gets the number of data elements in all attached sections. The value returned from this
-     * method does not necessarily correspond to the value returned by {@link #getItemCount()}.
-     * For example, if each attached section has no data and an {@link EmptyState} is attached, this
-     * method will return {@code 0}, but {@link #getItemCount()} will return {@code 1}.
+     * @return The monitor set with {@link #setJankMonitor(JankMonitor)}, or {@code null} if frames
+     *         aren't being monitored
+     */
+    @Nullable
+    public JankMonitor getJankMonitor() {
+        return mJankMonitor;
+    }
+
+    /**
+     * Releases memory in response to memory pressure. This should be called from
+     * {@link android.content.ComponentCallbacks2#onTrimMemory(int)} of the Activity or Fragment
+     * that shows this adapter.
      *
-     * @return The number of visible data entries in all sections
+     * Every section is passed the trim level with {@link Section#onTrimMemory(int)}. Starting at
+     * {@link ComponentCallbacks2#TRIM_MEMORY_RUNNING_LOW}, recycled views of sections that aren't
+     * on screen are discarded. Starting at {@link ComponentCallbacks2#TRIM_MEMORY_UI_HIDDEN},
+     * recycled views of every section are discarded. Pool sizes aren't changed, so views are
+     * created again as they are needed.
+     *
+     * @param level The trim level passed to {@code onTrimMemory}
      */
-    protected int getDataSize() {
-        int sum = 0;
-        for (Section s : mSections) {
-            sum += s.getItemCount(this);
+    public void onTrimMemory(int level) {
+        for (Section section : mSections) {
+            section.onTrimMemory(level);
         }
-        return sum;
-    }
 
-    @Override
-    public final int getItemCount() {
-        int count = getDataSize();
+        if (level < ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return;
+        }
 
-        if (count == 0 && mEmptyState != null) {
-            return 1;
-        } else {
-            return count;
+        boolean trimVisible = level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN;
+        for (Section section : mSections) {
+            if (section.mPoolViewType != RecyclerView.INVALID_TYPE
+                    && (trimVisible || !section.isInViewport())) {
+                clearRecycledViews(section.mPoolViewType);
+            }
         }
     }
 
     /**
-     * Gets the index of a section in this adapter. Equality is checked using the implementation of
-     * {@link Object#equals(Object)}, which defaults to checking references
-     * @param section The section to lookup an index for
-     * @return The index of this section relative to other sections in the adapter, or {@code -1}
-     *         if it wasn't found in this adapter.
+     * Discards the recycled views of a view type without changing its maximum pool size. Pools
+     * may be shared with other adapters, so only this adapter's view types are cleared.
      */
-    public int getSectionIndex(Section<?> section) {
-        for (int i = 0; i < mSections.size(); i++) {
-            if (mSections.get(i).equals(section)) {
-                return i;
+    private void clearRecycledViews(int viewType) {
+        for (RecyclerView recyclerView : mRecyclerViews) {
+            RecyclerView.RecycledViewPool pool = recyclerView.getRecycledViewPool();
+            while (pool.getRecycledView(viewType) != null) {
+                // Each call removes a view from the pool
             }
         }
-        return -1;
     }
 
     /**
-     * Gets the section at a given index
-     * @param index The index to get the attached section of
-     * @return The section at the specified index
+     * Sets the {@link EmptyState} to be displayed when there are no views to otherwise be displayed
+     * in this Adapter. This may occur either because no data has been loaded (and all Sections are
+     * empty), or because no Sections have been added.
+     * @param emptyState The empty state to show when there are no items to be shown in this list
+     *                   {@code null} to disable showing an empty state when the Adapter is empty,
+     *                   and to keep it completely blank.
      */
-    public Section getSection(int index) {
-        return mSections.get(index);
+    public void setEmptyState(@Nullable EmptyState emptyState) {
+        mEmptyState = emptyState;
     }
 
     /**
-     * Holds a group of sequential items if the same type to be displayed in a
-     * {@link HeterogeneousAdapter}. Sections act as {@link RecyclerView.Adapter}s with the
-     * condition that they may only have one type of ItemView
-     * @param <Type> The type of data that this Section holds
-     * @see HeterogeneousAdapter.ListSection
-     * @see HeterogeneousAdapter.SingletonSection
+     * Sets the {@link Placeholder} used to reserve space for sections whose items are loading
+     * @param placeholder The placeholder to show, or {@code null} to disable placeholders
+     * @see #showPlaceholders(Section, int)
      */
-    public static abstract class Section<Type> {
-
-        private int mTypeId;
+    public void setPlaceholder(@Nullable Placeholder placeholder) {
+        mPlaceholder = placeholder;
+    }
 
-        /**
-         * Creates a ViewHolder for the {@link HeterogeneousAdapter} this Section is attached to
-         * @param adapter the Adapter requesting a new ViewHolder
-         * @param parent the ViewGroup that this ViewHolder will be placed into
-         * @return A valid ViewHolder that may be used for items in this Section
-         * @see RecyclerView.Adapter#createViewHolder(ViewGroup, int)
-         */
-        public abstract EnhancedViewHolder<Type> createViewHolder(HeterogeneousAdapter adapter,
-                                                                  ViewGroup parent);
+    /**
+     * Shows placeholders instead of a section's items until
+     * {@link #clearPlaceholders(Section)} is called. Reserving about as many items as the section
+     * will have once it is loaded keeps the items below it from moving when it is loaded.
+     *
+     * The section's items must not be changed through any other methods of this adapter while
+     * its placeholders are shown.
+     *
+     * @param section The section to reserve space for, which must be attached to this adapter
+     * @param count The number of placeholders to show
+     * @throws IllegalStateException If no {@link Placeholder} has been set
+     */
+    public void showPlaceholders(@NonNull Section section, int count) {
+        if (mPlaceholder == null) {
+            throw new IllegalStateException("A Placeholder must be set before placeholders can "
+                    + "be shown");
+        } else if (count <= 0) {
+            throw new IllegalArgumentException("Placeholder count must be positive");
+        }
 
-        /**
-         * Get the ID of an item in the data set
-         * @param position The index in the data set that an ID has been requested for
-         * @return The ID of this item or {@link RecyclerView#NO_ID}
-         * @see RecyclerView.Adapter#getItemId(int)
-         */
-        public int getId(int position) {
-            return NO_ID;
+        int index = getSectionIndex(section);
+        if (index == -1) {
+            throw new IllegalArgumentException("This section isn't part of this adapter");
         }
 
-        /**
-         * Override this method to hide this Section if its visibility is dependent on another
-         * external condition. The default implementation always shows this section.
-         * @param adapter The adapter this Section is attached to
-         * @return true if this section should be shown, false if it should be hidden
-         */
-        public boolean showSection(HeterogeneousAdapter adapter) {
-            return true;
+        SectionOffsetIndex offsets = getOffsetIndex();
+        boolean rebind = !section.isShowingPlaceholders();
+        section.mPlaceholderCount = count;
+        resizeSection(offsets, index, rebind, null);
+    }
+
+    /**
+     * Replaces the placeholders of a section with its items. Placeholders are replaced in place
+     * with change notifications carrying {@link #PAYLOAD_PLACEHOLDER_REPLACED}, so items below
+     * the section only move if the number of items differs from the number of placeholders.
+     * Update the section's data before calling this method.
+     * @param section The section whose items have loaded
+     * @see ListSection#setData(List)
+     * @see #setSectionData(ListSection, List)
+     */
+    public void clearPlaceholders(@NonNull Section section) {
+        if (!section.isShowingPlaceholders()) {
+            return;
         }
 
+        int index = getSectionIndex(section);
+        SectionOffsetIndex offsets = getOffsetIndex();
+        section.mPlaceholderCount = 0;
+        resizeSection(offsets, index, true, PAYLOAD_PLACEHOLDER_REPLACED);
+    }
+
+    /**
+     * Filters every attached {@link ListSection} against a query. Matching is done on a background
+     * thread using {@link ListSection#onFilter(Object, CharSequence)}, and the results are applied
+     * on the main thread with range notifications for each section that changed. Calling this
+     * method again before a previous query has been applied cancels the previous query.
+     *
+     * When a query narrows the previous one (see
+     * {@link ListSection#isNarrowing(CharSequence, CharSequence)}), only the items that currently
+     * match are tested again.
+     *
+     * Sections added while a query is active are filtered with it on the main thread when they
+     * are added, and {@link ListSection#setData(List)} filters the new data with the section's
+     * current query. Backing lists should not be modified in place while a filter is running.
+     *
+     * @param query The query to filter sections with, or {@code null} to clear the filter
+     */
+    public void filter(@Nullable CharSequence query) {
+        if (mFilter == null) {
+            mFilter = new SectionFilter(this);
+        }
+        mFilter.filter(query);
+    }
+
+    /**
+     * Removes the filter applied by {@link #filter(CharSequence)} from every attached section
+     */
+    public void clearFilter() {
+        filter(null);
+    }
+
+    /**
+     * @return The query most recently passed to {@link #filter(CharSequence)}, which may not
+     *         have been applied yet, or {@code null} if sections aren't filtered
+     */
+    @Nullable
+    CharSequence getFilterQuery() {
+        return (mFilter == null) ? null : mFilter.getQuery();
+    }
+
+    /**
+     * Gets the {@link UpdateScheduler} for this adapter, which can be used to coalesce frequent
+     * section updates into a single set of notifications per frame
+     * @return The UpdateScheduler attached to this adapter
+     */
+    public UpdateScheduler getUpdateScheduler() {
+        if (mUpdateScheduler == null) {
+            mUpdateScheduler = new UpdateScheduler(this);
+        }
+        return mUpdateScheduler;
+    }
+
+    /**
+     * Replaces the data of a {@link ListSection} and notifies only the items that changed. Items
+     * are compared with {@link ListSection#areItemsTheSame(Object, Object)} and
+     * {@link ListSection#areContentsTheSame(Object, Object)}. The diff is computed on the calling
+     * thread, so this is best suited to replacing placeholder or restored data with live data.
+     *
+     * If the section is showing placeholders, they are replaced with the new data as described in
+     * {@link #clearPlaceholders(Section)}. If the section is filtered, the new data is filtered
+     * with the same query and only the items that pass the filter are notified.
+     *
+     * @param section The section to update, which must be attached to this adapter
+     * @param data The new data set to back the section
+     */
+    public <Type> void setSectionData(@NonNull final ListSection<Type> section,
+                                      @NonNull final List<Type> data) {
+        final List<Type> oldData = section.getData();
+        int[] oldIndices = section.getFilteredIndices();
+        boolean placeholders = section.isShowingPlaceholders();
+        int oldSize = (oldIndices == null) ? oldData.size() : oldIndices.length;
+        int oldVisible = section.getVisibleItemCount(this);
+        int oldTotal = getDataSize();
+        final int offset = getLeadingViewCount(section.getTypeId());
+
+        // The diff is also needed to keep the same items selected
+        boolean diffVisible = oldVisible == oldSize && !placeholders;
+        DiffUtil.DiffResult result = null;
+        if (diffVisible || section.hasSelection()) {
+            result = diff(section, oldData, data);
+        }
+
+        section.setData(data);
+        int[] newIndices = section.getFilteredIndices();
+        if (section.hasSelection()) {
+            result.dispatchUpdatesTo(section.getSelectionRemapper());
+        }
+
+        if (placeholders) {
+            clearPlaceholders(section);
+            return;
+        }
+
+        int newSize = (newIndices == null) ? data.size() : newIndices.length;
+        int newVisible = section.getVisibleItemCount(this);
+        if (oldVisible == 0 && newVisible == 0) {
+            return;
+        } else if (!diffVisible || newVisible != newSize
+                || oldTotal == 0 || oldTotal - oldVisible + newVisible == 0) {
+            notifyDataSetChanged();
+            return;
+        }
+
+        // While filtered, only the items that pass the filter are notified
+        if (oldIndices != null || newIndices != null) {
+            result = diff(section, ListSection.select(oldData, oldIndices),
+                    ListSection.select(data, newIndices));
+        }
+
+        result.dispatchUpdatesTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                notifyItemRangeInserted(offset + position, count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                notifyItemRangeRemoved(offset + position, count);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                notifyItemMoved(offset + fromPosition, offset + toPosition);
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                notifyItemRangeChanged(offset + position, count, payload);
+            }
+        });
+    }
+
+    private static <Type> DiffUtil.DiffResult diff(final ListSection<Type> section,
+                                                   final List<Type> oldData,
+                                                   final List<Type> newData) {
+        return DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldData.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newData.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                return section.areItemsTheSame(
+                        oldData.get(oldItemPosition), newData.get(newItemPosition));
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                return section.areContentsTheSame(
+                        oldData.get(oldItemPosition), newData.get(newItemPosition));
+            }
+        });
+    }
+
+    /**
+     * Collapses or expands a section. While a section is collapsed, only its first
+     * {@link Section#getCollapsedItemCount()} items are shown. The change is dispatched as a
+     * single range insertion or removal at the section's position.
+     * @param index The index of the section to collapse or expand
+     * @param collapsed true to collapse the section, false to expand it
+     */
+    public void setSectionCollapsed(int index, boolean collapsed) {
+        Section section = mSections.get(index);
+        if (section.isCollapsed() == collapsed) {
+            return;
+        }
+
+        SectionOffsetIndex offsets = getOffsetIndex();
+        section.setCollapsed(collapsed);
+        resizeSection(offsets, index, false, null);
+    }
+
+    /**
+     * @param section A section in this adapter
+     * @param position The position of an item relative to the start of the section
+     * @return true if this item is selected
+     */
+    public boolean isSelected(@NonNull Section section, int position) {
+        return section.mSelection != null
+                && section.mSelection.contains(section.toSelectionIndex(position));
+    }
+
+    /**
+     * @param position The adapter position of an item
+     * @return true if this item is selected
+     */
+    boolean isSelected(int position) {
+        lookupCoordinates(position, mCoordinate);
+        Section section = mSections.get(mCoordinate.getSection());
+        return !section.isShowingPlaceholders() && isSelected(section, mCoordinate.getItemIndex());
+    }
+
+    /**
+     * Selects or deselects a single item
+     * @param section A section in this adapter
+     * @param position The position of the item relative to the start of the section
+     * @param selected Whether the item should be selected
+     * @see #setRangeSelected(Section, int, int, boolean)
+     */
+    public void setSelected(@NonNull Section section, int position, boolean selected) {
+        setRangeSelected(section, position, 1, selected);
+    }
+
+    /**
+     * Selects or deselects a range of items in a section. The cost of this method depends on
+     * the number of disjoint selected ranges in the section and not the number of items, so
+     * selecting an entire section is inexpensive. Only the items whose selection state changed
+     * are notified, with {@link #PAYLOAD_SELECTION} as the payload.
+     *
+     * Selections are stored by each item's index in the section's data set, so they are kept
+     * while a {@link ListSection} is filtered. They are shifted when items are inserted, removed,
+     * or moved through this adapter, such as with {@link #setSectionData(ListSection, List)}, an
+     * {@link UpdateScheduler}, a {@link StreamSection}, or a {@link SortedSection}. Clear or
+     * adjust the selection of a section after modifying its data set any other way.
+     *
+     * @param section A section in this adapter
+     * @param start The position of the first item to select, relative to the start of the
+     *              section
+     * @param count The number of items to select
+     * @param selected Whether the items should be selected
+     */
+    public void setRangeSelected(@NonNull Section section, int start, int count,
+                                 boolean selected) {
+        int index = getSectionIndex(section);
+        if (index == -1) {
+            throw new IllegalArgumentException("This section isn't part of this adapter");
+        }
+
+        if (section.mSelection == null) {
+            if (!selected) {
+                return;
+            }
+            section.mSelection = new SelectionSet();
+        }
+
+        // Positions are converted into runs of consecutive indices in the section's data set,
+        // which is a single run unless the section is filtered
+        int end = start + count;
+        int position = start;
+        while (position < end) {
+            int runEnd = section.getSelectionRunEnd(position, end);
+            int first = section.toSelectionIndex(position);
+            setSelectionRange(section, index, first, first + runEnd - position, selected);
+            position = runEnd;
+        }
+    }
+
+    /**
+     * Selects or deselects a range of indices in a section's data set, and notifies the items
+     * whose selection state changed
+     * @param section The section to update
+     * @param index The index of the section in this adapter
+     * @param start The first index in the section's data set to update
+     * @param end The index after the last one to update
+     * @param selected Whether the items should be selected
+     */
+    private void setSelectionRange(Section section, int index, int start, int end,
+                                   boolean selected) {
+        int[] changes = section.mSelection.getChanges(start, end, selected);
+        if (changes.length == 0) {
+            return;
+        }
+        section.mSelection.set(start, end, selected);
+
+        if (getDataSize() == 0 || section.isShowingPlaceholders()) {
+            return;
+        }
+
+        SectionOffsetIndex offsets = getOffsetIndex();
+        int offset = offsets.getOffset(index);
+        int visibleCount = offsets.getSize(index);
+
+        mDispatchingIndexedChange = true;
+        try {
+            for (int i = 0; i < changes.length; i += 2) {
+                // Items in a range of indices are shown next to each other, even if some of the
+                // indices in between are filtered out
+                int from = section.toSelectionPosition(changes[i]);
+                int to = Math.min(section.toSelectionPosition(changes[i + 1]), visibleCount);
+                if (from < to) {
+                    notifyItemRangeChanged(offset + from, to - from, PAYLOAD_SELECTION);
+                }
+            }
+        } finally {
+            mDispatchingIndexedChange = false;
+        }
+    }
+
+    /**
+     * Selects every item in every section
+     */
+    public void selectAll() {
+        for (Section section : mSections) {
+            setRangeSelected(section, 0, section.getItemCount(this), true);
+        }
+    }
+
+    /**
+     * Deselects every item in every section
+     */
+    public void clearSelection() {
+        for (int i = 0; i < mSections.size(); i++) {
+            Section section = mSections.get(i);
+            SelectionSet selection = section.mSelection;
+            if (selection != null && !selection.isEmpty()) {
+                int end = selection.getRangeEnd(selection.getRangeCount() - 1);
+                setSelectionRange(section, i, 0, end, false);
+            }
+        }
+    }
+
+    /**
+     * @param section A section in this adapter
+     * @return The selected items in this section, by their index in the section's data set. This
+     *         set is updated as items are selected and deselected.
+     */
+    @NonNull
+    public SelectionSet getSelection(@NonNull Section section) {
+        if (section.mSelection == null) {
+            section.mSelection = new SelectionSet();
+        }
+        return section.mSelection;
+    }
+
+    /**
+     * @return The total number of selected items in every section
+     */
+    public int getSelectedItemCount() {
+        int count = 0;
+        for (Section section : mSections) {
+            if (section.mSelection != null) {
+                count += section.mSelection.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Collapses a section if it's expanded, or expands it if it's collapsed
+     * @param index The index of the section to toggle
+     * @see #setSectionCollapsed(int, boolean)
+     */
+    public void toggleSectionCollapsed(int index) {
+        setSectionCollapsed(index, !mSections.get(index).isCollapsed());
+    }
+
+    /**
+     * @return The offset index, rebuilt from every section's size if it has been invalidated
+     */
+    private SectionOffsetIndex getOffsetIndex() {
+        if (!mOffsetIndexValid) {
+            int count = mSections.size();
+            int[] sizes = new int[count];
+            mSectionIndices.clear();
+            for (int i = 0; i < count; i++) {
+                Section section = mSections.get(i);
+                sizes[i] = section.getVisibleItemCount(this);
+                mSectionIndices.put(section.getTypeId(), i);
+            }
+            mOffsetIndex.rebuild(sizes, count);
+            mOffsetIndexValid = true;
+        }
+        return mOffsetIndex;
+    }
+
+    /**
+     * Converts a position in the entire data set to a Coordinate in the section list. This method
+     * returns two values into the provided {@code Coordinate} so that it can be reused to save GC
+     * overhead.
+     *
+     * @param position The position in the entire data set to lookup a coordinate of
+     * @param coordinate {@code Coordinate} object to put the result into
+     */
+    protected final void lookupCoordinates(int position, Coordinate coordinate) {
+        SectionOffsetIndex offsets = getOffsetIndex();
+        int section = offsets.findSection(position);
+        if (section == -1) {
+            coordinate.clear();
+        } else {
+            coordinate.setSection(section);
+            coordinate.setItemIndex(position - offsets.getOffset(section));
+        }
+    }
+
+    /**
+     * Gets the position of the first item in a section. This is useful for jumping to a section.
+     * @param sectionIndex The index of a section, or {@link #getSectionCount()} to get the number
+     *                     of items in every section
+     * @return The position in the entire data set where the section begins. If the section is
+     *         empty or hidden, this is the position where its first item would be.
+     * @throws IndexOutOfBoundsException If the index is negative or greater than
+     *                                   {@link #getSectionCount()}
+     */
+    public int getSectionStart(int sectionIndex) {
+        if (sectionIndex < 0 || sectionIndex > mSections.size()) {
+            throw new IndexOutOfBoundsException("Section index " + sectionIndex
+                    + " is out of bounds for " + mSections.size() + " sections");
+        }
+        return getOffsetIndex().getOffset(sectionIndex);
+    }
+
+    /**
+     * Finds the index of the section that holds an item
+     * @param position The position of an item in the entire data set
+     * @return The index of the section that the item at this position belongs to, or {@code -1}
+     *         if the position doesn't belong to any section
+     */
+    public int getSectionIndexForPosition(int position) {
+        return getOffsetIndex().findSection(position);
+    }
+
+    /**
+     * Finds the section that holds an item
+     * @param position The position of an item in the entire data set
+     * @return The section that the item at this position belongs to, or {@code null} if the
+     *         position doesn't belong to any section
+     */
+    @Nullable
+    public Section getSectionForPosition(int position) {
+        int section = getSectionIndexForPosition(position);
+        return (section == -1) ? null : mSections.get(section);
+    }
+
+    /**
+     * Converts a position in the entire data set to the index of the item in its section
+     * @param position The position of an item in the entire data set
+     * @return The index of the item in the section that holds it, or
+     *         {@link RecyclerView#NO_POSITION} if the position doesn't belong to any section
+     */
+    public int getPositionInSection(int position) {
+        SectionOffsetIndex offsets = getOffsetIndex();
+        int section = offsets.findSection(position);
+        return (section == -1) ? RecyclerView.NO_POSITION : position - offsets.getOffset(section);
+    }
+
+    /**
+     * Calculates the number of views contained in sections proceeding a given section
+     * @param typeId The ID of the section to get the leading view count of
+     * @return The number of views in this list that are above the first view in the given section
+     */
+    protected int getLeadingViewCount(int typeId) {
+        SectionOffsetIndex offsets = getOffsetIndex();
+        return offsets.getOffset(mSectionIndices.get(typeId, mSections.size()));
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        if (getDataSize() == 0) {
+            return EMPTY_TYPE;
+        }
+
+        lookupCoordinates(position, mCoordinate);
+        Section section = mSections.get(mCoordinate.getSection());
+        return section.isShowingPlaceholders() ? PLACEHOLDER_TYPE : section.getTypeId();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        if (getDataSize() == 0 && mEmptyState != null) {
+            return EMPTY_STATE_ID;
+        }
+
+        lookupCoordinates(position, mCoordinate);
+        int section = mCoordinate.getSection();
+        int item = mCoordinate.getItemIndex();
+
+        Section itemSection = mSections.get(section);
+        if (itemSection.isShowingPlaceholders()) {
+            // Real IDs have a positive type ID in their upper bits, so these never collide
+            return ~((long) itemSection.getTypeId() << 32 | item);
+        }
+        return itemSection.getStableId(item);
+    }
+
+    @Override
+    public EnhancedViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        EnhancedViewHolder holder;
+        if (viewType == EMPTY_TYPE) {
+            holder = mEmptyState.createViewHolder(this, parent);
+        } else if (viewType == PLACEHOLDER_TYPE) {
+            holder = mPlaceholder.createViewHolder(this, parent);
+        } else if (mJankMonitor == null) {
+            holder = mSectionIdMap.get(viewType).createViewHolder(this, parent);
+        } else {
+            Section section = mSectionIdMap.get(viewType);
+            long start = System.nanoTime();
+            holder = section.createViewHolder(this, parent);
+            mJankMonitor.onCreateViewHolder(section, System.nanoTime() - start);
+        }
+
+        holder.setLocalViewType(viewType);
+        return holder;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void onBindViewHolder(EnhancedViewHolder holder, int position) {
+        if (holder instanceof EmptyState.EmptyViewHolder) {
+            ((EmptyState.EmptyViewHolder) holder).onUpdate(null, position);
+        } else {
+            lookupCoordinates(position, mCoordinate);
+            int section = mCoordinate.getSection();
+            int item = mCoordinate.getItemIndex();
+            holder.setAdapter(this);
+            if (holder instanceof Placeholder.PlaceholderViewHolder) {
+                ((Placeholder.PlaceholderViewHolder) holder).onUpdate(null, item);
+            } else if (mJankMonitor == null) {
+                mSections.get(section).onBind(holder, item);
+            } else {
+                Section itemSection = mSections.get(section);
+                long start = System.nanoTime();
+                itemSection.onBind(holder, item);
+                mJankMonitor.onBindViewHolder(itemSection, System.nanoTime() - start);
+            }
+
+            if (mPendingLazySectionCount > 0) {
+                materializeLazySectionsNear(position);
+            }
+        }
+    }
+
+    @Override
+    public void onBindViewHolder(EnhancedViewHolder holder, int position, List<Object> payloads) {
+        if (!payloads.isEmpty() && !(holder instanceof EmptyState.EmptyViewHolder)) {
+            boolean selectionOnly = true;
+            for (Object payload : payloads) {
+                selectionOnly &= payload == PAYLOAD_SELECTION;
+            }
+
+            if (selectionOnly) {
+                holder.setAdapter(this);
+                if (holder.onSelectionChanged(isSelected(position))) {
+                    return;
+                }
+            }
+        }
+        onBindViewHolder(holder, position);
+    }
+
+    @Override
+    public void onViewAttachedToWindow(EnhancedViewHolder holder) {
+        super.onViewAttachedToWindow(holder);
+        Section section = mSectionIdMap.get(holder.getLocalViewType());
+        if (section == null) {
+            return;
+        }
+
+        if (section.mAttachedViewCount++ == 0) {
+            section.onEnterViewport();
+        }
+
+        // The pool is keyed by the view type that RecyclerView sees, not the local one
+        section.mPoolViewType = holder.getItemViewType();
+        if (section.mAttachedViewCount > section.mPeakAttachedViewCount) {
+            section.mPeakAttachedViewCount = section.mAttachedViewCount;
+            if (mPoolPolicy != null) {
+                updatePoolSize(section);
+            }
+        }
+    }
+
+    @Override
+    public void onViewDetachedFromWindow(EnhancedViewHolder holder) {
+        super.onViewDetachedFromWindow(holder);
+        Section section = mSectionIdMap.get(holder.getLocalViewType());
+        if (section != null && section.mAttachedViewCount > 0
+                && --section.mAttachedViewCount == 0) {
+            section.onExitViewport();
+        }
+    }
+
+    /**
+     * Sets how close a {@link LazySection} must come to a bound item before it is materialized
+     * @param distance The number of items before and after each bound item to check for
+     *                 unmaterialized sections
+     */
+    public void setLazySectionDistance(int distance) {
+        mLazySectionDistance = distance;
+    }
+
+    /**
+     * Schedules every unmaterialized {@link LazySection} within {@link #mLazySectionDistance}
+     * items of a position to be materialized once the current layout pass has finished
+     */
+    private void materializeLazySectionsNear(int position) {
+        SectionOffsetIndex offsets = getOffsetIndex();
+        int first = offsets.findSection(Math.max(0, position - mLazySectionDistance));
+        int last = offsets.findSection(
+                Math.min(offsets.getTotal() - 1, position + mLazySectionDistance));
+        if (first == -1 || last == -1) {
+            return;
+        }
+
+        for (int i = first; i <= last; i++) {
+            Section section = mSections.get(i);
+            if (section instanceof LazySection) {
+                LazySection lazySection = (LazySection) section;
+                if (!lazySection.mReconciled) {
+                    postLazySectionReconciliation(lazySection);
+                }
+            }
+        }
+    }
+
+    /**
+     * Schedules a {@link LazySection} to be reconciled once the current layout pass has finished
+     */
+    private void postLazySectionReconciliation(final LazySection section) {
+        if (section.mMaterializationPosted) {
+            return;
+        }
+
+        section.mMaterializationPosted = true;
+        getHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                reconcileLazySection(section);
+            }
+        });
+    }
+
+    /**
+     * Materializes a {@link LazySection} if it hasn't been already, and replaces its estimated
+     * item count with its actual item count. Must not be called during a layout pass.
+     */
+    private void reconcileLazySection(LazySection section) {
+        section.mMaterializationPosted = false;
+        int index = getSectionIndex(section);
+        if (index == -1 || section.mReconciled) {
+            return;
+        }
+
+        if (!section.isMaterialized()) {
+            section.materialize();
+        }
+        mPendingLazySectionCount--;
+        SectionOffsetIndex offsets = getOffsetIndex();
+        section.mReconciled = true;
+
+        // Items bound before reconciliation didn't have stable IDs, so they need to be rebound.
+        // Items past the real size were left unbound, and are removed here.
+        resizeSection(offsets, index, true, null);
+    }
+
+    /**
+     * Updates the cached size of a section to its current visible item count, and dispatches the
+     * difference as a single range insertion or removal at the end of the section
+     * @param offsets The offset index, which must have been retrieved with
+     *                {@link #getOffsetIndex()} before the section changed so that it still
+     *                holds the old size
+     * @param index The index of the section that changed
+     * @param rebind true to also notify that the items present before and after the change have
+     *               changed
+     * @param payload The payload to send when rebinding items, or {@code null}
+     */
+    private void resizeSection(SectionOffsetIndex offsets, int index, boolean rebind,
+                               @Nullable Object payload) {
+        int offset = offsets.getOffset(index);
+        int oldSize = offsets.getSize(index);
+        int oldTotal = offsets.getTotal();
+
+        int newSize = mSections.get(index).getVisibleItemCount(this);
+        offsets.setSize(index, newSize);
+
+        mDispatchingIndexedChange = true;
+        try {
+            if (oldSize == newSize && !rebind) {
+                return;
+            } else if (oldTotal == 0 || offsets.getTotal() == 0) {
+                // The empty state may need to be shown or hidden
+                notifyDataSetChanged();
+                return;
+            }
+
+            int common = Math.min(oldSize, newSize);
+            if (rebind && common > 0) {
+                notifyItemRangeChanged(offset, common, payload);
+            }
+            if (newSize > oldSize) {
+                notifyItemRangeInserted(offset + oldSize, newSize - oldSize);
+            } else if (oldSize > newSize) {
+                notifyItemRangeRemoved(offset + newSize, oldSize - newSize);
+            }
+        } finally {
+            mDispatchingIndexedChange = false;
+        }
+    }
+
+    private Handler getHandler() {
+        if (mHandler == null) {
+            mHandler = new Handler(Looper.getMainLooper());
+        }
+        return mHandler;
+    }
+
+    /**
+     * Gets the number of data elements in all attached sections. The value returned from this
+     * method does not necessarily correspond to the value returned by {@link #getItemCount()}.
+     * For example, if each attached section has no data and an {@link EmptyState} is attached, this
+     * method will return {@code 0}, but {@link #getItemCount()} will return {@code 1}.
+     *
+     * @return The number of visible data entries in all sections
+     */
+    protected int getDataSize() {
+        return getOffsetIndex().getTotal();
+    }
+
+    @Override
+    public final int getItemCount() {
+        int count = getDataSize();
+
+        if (count == 0 && mEmptyState != null) {
+            return 1;
+        } else {
+            return count;
+        }
+    }
+
+    /**
+     * Gets the index of a section in this adapter. Equality is checked using the implementation of
+     * {@link Object#equals(Object)}, which defaults to checking references
+     * @param section The section to lookup an index for
+     * @return The index of this section relative to other sections in the adapter, or {@code -1}
+     *         if it wasn't found in this adapter.
+     */
+    public int getSectionIndex(Section<?> section) {
+        for (int i = 0; i < mSections.size(); i++) {
+            if (mSections.get(i).equals(section)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the section at a given index
+     * @param index The index to get the attached section of
+     * @return The section at the specified index
+     */
+    public Section getSection(int index) {
+        return mSections.get(index);
+    }
+
+    /**
+     * Invalidates the cached section offsets whenever a change is dispatched that this adapter
+     * didn't already account for
+     */
+    private class OffsetInvalidationObserver extends RecyclerView.AdapterDataObserver {
+
+        private void invalidate() {
+            if (!mDispatchingIndexedChange) {
+                mOffsetIndexValid = false;
+            }
+        }
+
+        @Override
+        public void onChanged() {
+            invalidate();
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            invalidate();
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount, Object payload) {
+            invalidate();
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            invalidate();
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            invalidate();
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            invalidate();
+        }
+    }
+
+    /**
+     * Holds a group of sequential items if the same type to be displayed in a
+     * {@link HeterogeneousAdapter}. Sections act as {@link RecyclerView.Adapter}s with the
+     * condition that they may only have one type of ItemView
+     * @param <Type> The type of data that this Section holds
+     * @see HeterogeneousAdapter.ListSection
+     * @see HeterogeneousAdapter.SingletonSection
+     */
+    public static abstract class Section<Type> {
+
+        private int mTypeId;
+        private boolean mCollapsed;
+
+        /**
+         * The number of this section's views that are currently attached to a window
+         */
+        private int mAttachedViewCount;
+
+        /**
+         * The most views of this section that have been attached to a window at the same time
+         */
+        private int mPeakAttachedViewCount;
+
+        /**
+         * The view type that this section's views are recycled under, which may differ from
+         * {@link #mTypeId} if the adapter is nested in a {@link ConcatenatedAdapter}, or
+         * {@link RecyclerView#INVALID_TYPE} if none of this section's views have been attached
+         */
+        private int mPoolViewType = RecyclerView.INVALID_TYPE;
+
+        /**
+         * The size of this section's recycled view pool set by a {@link RecycledViewPoolPolicy},
+         * or {@link HeterogeneousAdapter#NO_POOL_SIZE} if it hasn't been set
+         */
+        private int mPoolSize = NO_POOL_SIZE;
+
+        /**
+         * The selected items in this section, or {@code null} if nothing has been selected
+         */
+        private SelectionSet mSelection;
+
+        /**
+         * The number of placeholders shown instead of this section's items, or {@code 0} if this
+         * section's items are shown
+         */
+        private int mPlaceholderCount;
+
+        /**
+         * This section's statistics in the last {@link JankMonitor} it reported to, cached so
+         * that they don't need to be looked up by name on every bind
+         */
+        JankMonitor.SectionStats mJankStats;
+
+        /**
+         * Creates a ViewHolder for the {@link HeterogeneousAdapter} this Section is attached to
+         * @param adapter the Adapter requesting a new ViewHolder
+         * @param parent the ViewGroup that this ViewHolder will be placed into
+         * @return A valid ViewHolder that may be used for items in this Section
+         * @see RecyclerView.Adapter#createViewHolder(ViewGroup, int)
+         */
+        public abstract EnhancedViewHolder<Type> createViewHolder(HeterogeneousAdapter adapter,
+                                                                  ViewGroup parent);
+
+        /**
+         * Get the ID of an item in the data set
+         * @param position The index in the data set that an ID has been requested for
+         * @return The ID of this item or {@link RecyclerView#NO_ID}
+         * @see RecyclerView.Adapter#getItemId(int)
+         */
+        public int getId(int position) {
+            return NO_ID;
+        }
+
+        /**
+         * Gets the 64-bit ID reported to {@link RecyclerView} for an item in this section. The
+         * default implementation packs this section's type ID into the upper 32 bits and
+         * {@link #getId(int)} into the lower 32 bits. Override this method to use IDs that don't
+         * fit in 32 bits. IDs only need to be unique within this section.
+         * @param position The index in the data set that an ID has been requested for
+         * @return The ID of this item or {@link RecyclerView#NO_ID}
+         * @see RecyclerView.Adapter#getItemId(int)
+         */
+        public long getStableId(int position) {
+            int givenId = getId(position);
+            if (givenId == NO_ID) {
+                return RecyclerView.NO_ID;
+            }
+            return (long) mTypeId << 32 | (givenId & 0xFFFFFFFFL);
+        }
+
+        /**
+         * Override this method to hide this Section if its visibility is dependent on another
+         * external condition. The default implementation always shows this section.
+         * @param adapter The adapter this Section is attached to
+         * @return true if this section should be shown, false if it should be hidden
+         */
+        public boolean showSection(HeterogeneousAdapter adapter) {
+            return true;
+        }
+
+        /**
+         * Gets the number of visible items held by this section. This value handles hiding this
+         * section with {@link #showSection(HeterogeneousAdapter)}, and will return either
+         * {@link #getItemCount()} or {@code 0}.
+         * @param adapter The adapter that this section is attached to
+         * @return The number of visible items that are held by this section
+         */
+        public final int getSize(HeterogeneousAdapter adapter) {
+            return showSection(adapter) ? getItemCount(adapter) : 0;
+        }
+
+        /**
+         * Called when this section becomes part of an adapter that is attached to a
+         * {@link RecyclerView}, either because it was added to an attached adapter or because its
+         * adapter was attached. Sections that observe external data should start observing it
+         * here. The default implementation does nothing.
+         * @param adapter The adapter that this section is attached to
+         */
+        protected void onAttached(HeterogeneousAdapter adapter) {
+
+        }
+
+        /**
+         * Called when this section is no longer shown by a {@link RecyclerView}, either because
+         * it was removed from its adapter or because its adapter was detached. Sections should
+         * release anything acquired in {@link #onAttached(HeterogeneousAdapter)} here. The default
+         * implementation does nothing.
+         * @param adapter The adapter that this section was attached to
+         */
+        protected void onDetached(HeterogeneousAdapter adapter) {
+
+        }
+
+        /**
+         * @return true if placeholders are shown instead of this section's items
+         * @see HeterogeneousAdapter#showPlaceholders(Section, int)
+         */
+        public final boolean isShowingPlaceholders() {
+            return mPlaceholderCount > 0;
+        }
+
+        /**
+         * Converts a position in this section into the index that its selection state is stored
+         * under. The default implementation returns the position unchanged.
+         */
+        int toSelectionIndex(int position) {
+            return position;
+        }
+
+        /**
+         * Finds the first position in this section whose selection index is at least
+         * {@code index}. The default implementation returns the index unchanged.
+         */
+        int toSelectionPosition(int index) {
+            return index;
+        }
+
+        /**
+         * @return The end of the run of positions beginning at {@code start} whose selection
+         *         indices are consecutive, which is no greater than {@code end}
+         */
+        int getSelectionRunEnd(int start, int end) {
+            return end;
+        }
+
+        /**
+         * Shifts this section's selection after items were inserted into its data set
+         */
+        final void remapSelectionForInsertion(int index, int count) {
+            if (mSelection != null) {
+                mSelection.insert(index, count);
+            }
+        }
+
+        /**
+         * Shifts this section's selection after items were removed from its data set
+         */
+        final void remapSelectionForRemoval(int index, int count) {
+            if (mSelection != null) {
+                mSelection.remove(index, count);
+            }
+        }
+
+        /**
+         * Updates this section's selection after an item in its data set was moved
+         */
+        final void remapSelectionForMove(int from, int to) {
+            if (mSelection != null) {
+                mSelection.move(from, to);
+            }
+        }
+
+        /**
+         * @return true if any of this section's items are selected
+         */
+        final boolean hasSelection() {
+            return mSelection != null && !mSelection.isEmpty();
+        }
+
+        /**
+         * @return A callback that updates this section's selection as changes to its data set are
+         *         dispatched to it, such as from a {@link DiffUtil.DiffResult}
+         */
+        final ListUpdateCallback getSelectionRemapper() {
+            return new ListUpdateCallback() {
+                @Override
+                public void onInserted(int position, int count) {
+                    remapSelectionForInsertion(position, count);
+                }
+
+                @Override
+                public void onRemoved(int position, int count) {
+                    remapSelectionForRemoval(position, count);
+                }
+
+                @Override
+                public void onMoved(int fromPosition, int toPosition) {
+                    remapSelectionForMove(fromPosition, toPosition);
+                }
+
+                @Override
+                public void onChanged(int position, int count, Object payload) {
+
+                }
+            };
+        }
+
+        /**
+         * Called when the first of this section's items is attached to a {@link RecyclerView}'s
+         * window. Sections that do ongoing work for their items, such as timers or animations,
+         * should start that work here. The default implementation does nothing.
+         */
+        protected void onEnterViewport() {
+
+        }
+
+        /**
+         * Called when none of this section's items are attached to a {@link RecyclerView}'s
+         * window anymore, or when this section is removed from its adapter while its items are
+         * shown. Sections should stop anything started in {@link #onEnterViewport()} here. The
+         * default implementation does nothing.
+         */
+        protected void onExitViewport() {
+
+        }
+
+        /**
+         * Called by a {@link SectionPrefetcher} when items in this section are about to be
+         * scrolled onto the screen. Sections can use this to start loading images or other data
+         * that their items need before they are bound. The default implementation does nothing.
+         * @param position The position of the first item to prefetch, relative to the start of
+         *                 this section
+         * @param count The number of items to prefetch
+         */
+        protected void onPrefetch(int position, int count) {
+
+        }
+
+        /**
+         * Called by a {@link SectionPrefetcher} when items passed to
+         * {@link #onPrefetch(int, int)} are no longer expected to be shown soon, because the list
+         * changed direction, the items were scrolled past, or the adapter's data changed.
+         * Sections should cancel any loads started for these items. The default implementation
+         * does nothing.
+         * @param position The position of the first item to cancel, relative to the start of
+         *                 this section
+         * @param count The number of items to cancel
+         */
+        protected void onCancelPrefetch(int position, int count) {
+
+        }
+
+        /**
+         * Called when the adapter is asked to release memory with
+         * {@link HeterogeneousAdapter#onTrimMemory(int)}. Sections should release anything that
+         * can be recreated later, such as caches, pages of data that aren't shown, or precomputed
+         * bind models. Higher levels mean that memory is more scarce. The default implementation
+         * does nothing.
+         * @param level The trim level, as defined by {@link ComponentCallbacks2}
+         */
+        protected void onTrimMemory(int level) {
+
+        }
+
+        /**
+         * @return true if at least one of this section's items is attached to a
+         *         {@link RecyclerView}'s window
+         */
+        public final boolean isInViewport() {
+            return mAttachedViewCount > 0;
+        }
+
+        /**
+         * @return true if this section has been collapsed with
+         *         {@link HeterogeneousAdapter#setSectionCollapsed(int, boolean)}
+         */
+        public final boolean isCollapsed() {
+            return mCollapsed;
+        }
+
+        private void setCollapsed(boolean collapsed) {
+            mCollapsed = collapsed;
+        }
+
+        /**
+         * Override this method to label this section in a {@link FastScroller}. The default
+         * implementation has no label.
+         * @return A short label describing the items in this section, or {@code null}
+         */
+        @Nullable
+        public CharSequence getSectionLabel() {
+            return null;
+        }
+
+        /**
+         * Override this method if every item in this section has the same height. When every
+         * visible section declares a fixed height, a {@link FastScroller} can compute exact
+         * scroll positions without measuring any rows. The default implementation returns
+         * {@code 0}, meaning that item heights aren't known.
+         * @return The height of each item in this section, in pixels, or {@code 0} if unknown
+         */
+        public int getFixedItemHeight() {
+            return 0;
+        }
+
+        /**
+         * Override this method to keep some items visible while this section is collapsed, such
+         * as a header at the top of the section. The default implementation hides every item.
+         * @return The number of leading items to show while this section is collapsed
+         */
+        public int getCollapsedItemCount() {
+            return 0;
+        }
+
+        /**
+         * Gets the number of items that the adapter shows for this section, which accounts for
+         * this section being collapsed or showing placeholders
+         * @param adapter The adapter that this section is attached to
+         * @return The number of items from this section that appear in the adapter
+         */
+        final int getVisibleItemCount(HeterogeneousAdapter adapter) {
+            int count;
+            if (mPlaceholderCount > 0) {
+                count = showSection(adapter) ? mPlaceholderCount : 0;
+            } else {
+                count = getItemCount(adapter);
+            }
+            return mCollapsed ? Math.min(count, getCollapsedItemCount()) : count;
+        }
+
+        /**
+         * Gets the number of items held by this section
+         * @return The number of items in this section's backing data set
+         */
+        public abstract int getItemCount(HeterogeneousAdapter adapter);
+
+        /**
+         * Returns an item in the data set used to populate a ViewHolder
+         * @param position The index of the item to return
+         * @return The item at the specified index in this Section's data set
+         */
+        public abstract Type get(int position);
+
+        /**
+         * Passes an item in this section to a ViewHolder. Primitive sections override this method
+         * to bind their values without boxing them.
+         * @param holder The ViewHolder to update
+         * @param position The index of the item to bind
+         */
+        @SuppressWarnings("unchecked")
+        void onBind(EnhancedViewHolder holder, int position) {
+            holder.onUpdate(get(position), position);
+        }
+
+        /**
+         * Used internally by {@link HeterogeneousAdapter} to set a unique ID for this section.
+         * @param id The ID to use for this Section when {@link RecyclerView} calls
+         *           {@link RecyclerView.Adapter#getItemViewType(int)}
+         */
+        private void setTypeId(int id) {
+            mTypeId = id;
+        }
+
+        /**
+         * @return The item type ID as used by
+         *         {@link RecyclerView.Adapter#getItemViewType(int)}. This ID is constant
+         *         for all items in this section. This value should be unique and constant
+         *         to the each class that extends Section. This value MUST be unique among
+         *         all Sections that are put in the same HeterogeneousAdapter.
+         */
+        public final int getTypeId() {
+            return mTypeId;
+        }
+    }
+
+    /**
+     * An extension of {@link HeterogeneousAdapter.Section} that always has exactly one item in
+     * the set
+     * @param <Type> The class of the item that this Section shows. You may use {@link Void}
+     *              if this Section has no data
+     */
+    public static abstract class SingletonSection<Type> extends Section<Type> {
+
+        private Type mData;
+
+        /**
+         * @param data The item to show in this Section
+         */
+        public SingletonSection(Type data) {
+            mData = data;
+        }
+
+        /**
+         * Replace the current data item. Callers are responsible for calling
+         * {@link RecyclerView.Adapter#notifyDataSetChanged()} or an equivalent method
+         * @param data The new data item to show in this Section
+         */
+        public void setData(Type data) {
+            mData = data;
+        }
+
+        @Override
+        public final int getItemCount(HeterogeneousAdapter adapter) {
+            return showSection(adapter) ? 1 : 0;
+        }
+
+        @Override
+        public final Type get(int position) {
+            return mData;
+        }
+
+    }
+
+    /**
+     * An extension of {@link HeterogeneousAdapter.Section} used to show a list of items of the
+     * same type
+     * @param <Type> The class of the data that this Section shows.
+     */
+    public static abstract class ListSection<Type> extends Section<Type> {
+
+        private List<Type> mData;
+
+        /**
+         * The indices in {@link #mData} that match the current filter, in ascending order, or
+         * {@code null} if this section isn't filtered
+         */
+        private int[] mFilteredIndices;
+        private CharSequence mFilterQuery;
+
+        private KeyExtractor<? super Type> mKeyExtractor;
+        private boolean mCheckKeyCollisions;
+
+        /**
+         * @param data The data to populate this Section with
+         */
+        public ListSection(@NonNull List<Type> data) {
+            mData = data;
+        }
+
+        /**
+         * Derives stable IDs for this section from its items instead of from
+         * {@link #getId(int)}. Keys only need to be unique within this section. Remember to call
+         * {@link RecyclerView.Adapter#setHasStableIds(boolean)} on the adapter.
+         *
+         * Stable IDs reserve their upper 32 bits for this section, so keys are folded into the
+         * lower 32 bits. Keys below 2<sup>32</sup> never collide, but hashed keys (like those from
+         * {@link #hashKey(CharSequence)}) can: a section with n hashed keys has roughly an
+         * n<sup>2</sup>/2<sup>33</sup> chance of two items sharing an ID. Use
+         * {@link #setCheckKeyCollisions(boolean)} to detect this in debug builds.
+         * @param keyExtractor The function used to find each item's key, or {@code null} to use
+         *                     {@link #getId(int)} instead
+         */
+        public void setKeyExtractor(@Nullable KeyExtractor<? super Type> keyExtractor) {
+            mKeyExtractor = keyExtractor;
+            if (mCheckKeyCollisions) {
+                checkKeyCollisions();
+            }
+        }
+
+        /**
+         * Enables checking for duplicate keys whenever the key extractor or data set is replaced.
+         * This check visits every item, so it should only be enabled in debug builds (for example,
+         * by passing {@code BuildConfig.DEBUG}).
+         * @param checkKeyCollisions true to check for duplicate keys
+         */
+        public void setCheckKeyCollisions(boolean checkKeyCollisions) {
+            mCheckKeyCollisions = checkKeyCollisions;
+            if (checkKeyCollisions) {
+                checkKeyCollisions();
+            }
+        }
+
+        /**
+         * Verifies that no two items in this section share a stable ID. This catches duplicate
+         * keys as well as distinct keys that fold into the same ID.
+         * @throws IllegalStateException If two items have the same stable ID
+         */
+        public void checkKeyCollisions() {
+            if (mKeyExtractor == null) {
+                return;
+            }
+
+            // Each entry holds an item's folded key in its upper half and its index in the lower
+            // half, so that sorting puts items with the same ID next to each other
+            long[] entries = new long[mData.size()];
+            for (int i = 0; i < entries.length; i++) {
+                int key = foldKey(mKeyExtractor.getKey(mData.get(i)));
+                entries[i] = (long) key << 32 | i;
+            }
+            Arrays.sort(entries);
+
+            for (int i = 1; i < entries.length; i++) {
+                int key = (int) (entries[i] >> 32);
+                if (key == (int) (entries[i - 1] >> 32)) {
+                    throw new IllegalStateException("Items at indices " + (int) entries[i - 1]
+                            + " and " + (int) entries[i] + " have the same stable ID (key " + key
+                            + ")");
+                }
+            }
+        }
+
+        /**
+         * Override this method to include this section in a {@link SectionSnapshot}. The key
+         * must stay the same across launches and be unique among the sections in an adapter.
+         * The default implementation returns {@code null}, which excludes this section from
+         * snapshots.
+         * @return The key used to identify this section's data in a snapshot
+         */
+        @Nullable
+        protected String getSnapshotKey() {
+            return null;
+        }
+
+        /**
+         * Override this method to include this section in a {@link SectionSnapshot}. The default
+         * implementation returns {@code null}, which excludes this section from snapshots.
+         * @return The codec used to save and restore this section's items
+         */
+        @Nullable
+        protected SectionSnapshot.Codec<Type> getSnapshotCodec() {
+            return null;
+        }
+
+        /**
+         * Checks whether two items represent the same entity when this section's data is replaced
+         * with {@link HeterogeneousAdapter#setSectionData(ListSection, List)}. The default
+         * implementation compares keys if a {@link KeyExtractor} has been set, or uses
+         * {@link Object#equals(Object)} otherwise.
+         */
+        protected boolean areItemsTheSame(Type oldItem, Type newItem) {
+            if (mKeyExtractor != null) {
+                return mKeyExtractor.getKey(oldItem) == mKeyExtractor.getKey(newItem);
+            }
+            return oldItem == null ? newItem == null : oldItem.equals(newItem);
+        }
+
+        /**
+         * Checks whether two items that represent the same entity look the same when this
+         * section's data is replaced with
+         * {@link HeterogeneousAdapter#setSectionData(ListSection, List)}. The default
+         * implementation uses {@link Object#equals(Object)}.
+         */
+        protected boolean areContentsTheSame(Type oldItem, Type newItem) {
+            return oldItem == null ? newItem == null : oldItem.equals(newItem);
+        }
+
+        /**
+         * Hashes a string into a 64-bit key, for use in a {@link KeyExtractor} when items are
+         * identified by strings. Uses the 64-bit FNV-1a hash.
+         * @param key The string to hash
+         * @return A 64-bit hash of the string
+         */
+        public static long hashKey(@NonNull CharSequence key) {
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < key.length(); i++) {
+                char c = key.charAt(i);
+                hash = (hash ^ (c & 0xFF)) * 0x100000001b3L;
+                hash = (hash ^ (c >>> 8)) * 0x100000001b3L;
+            }
+            return hash;
+        }
+
+        @Override
+        public long getStableId(int position) {
+            if (mKeyExtractor == null) {
+                return super.getStableId(position);
+            }
+
+            // Use the same layout as the default IDs, with this section's type ID in the upper 32
+            // bits. This keeps keyed IDs apart from other sections, placeholders, NO_ID and the
+            // empty state, since the type ID is always positive.
+            return (long) getTypeId() << 32 | (foldKey(mKeyExtractor.getKey(get(position)))
+                    & 0xFFFFFFFFL);
+        }
+
+        /**
+         * Folds a 64-bit key into the 32 bits available for it in a stable ID. Keys that already
+         * fit in 32 bits (like most database row IDs) are kept as-is.
+         */
+        private static int foldKey(long key) {
+            return (int) (key ^ (key >>> 32));
+        }
+
+        /**
+         * @return the backing data set
+         */
+        public List<Type> getData() {
+            return mData;
+        }
+
+        /**
+         * Replace the active data set. Callers are responsible for calling
+         * {@link RecyclerView.Adapter#notifyDataSetChanged()}. If this section is filtered by
+         * {@link HeterogeneousAdapter#filter(CharSequence)}, the new data is filtered with the
+         * same query on the calling thread.
+         * @param mData The new data set to back this Section
+         */
+        public void setData(@NonNull List<Type> mData) {
+            this.mData = mData;
+            refilter(mFilterQuery);
+
+            if (mCheckKeyCollisions) {
+                checkKeyCollisions();
+            }
+        }
+
+        /**
+         * Checks whether an item should be shown while this section is filtered. This method is
+         * called on a background thread by {@link HeterogeneousAdapter#filter(CharSequence)}, and
+         * must not touch any views. The default implementation matches every item.
+         * @param item The item to test
+         * @param query The current filter query. Never empty.
+         * @return true if the item should be shown, false if it should be hidden
+         */
+        protected boolean onFilter(Type item, @NonNull CharSequence query) {
+            return true;
+        }
+
+        /**
+         * Checks whether every item matching {@code query} is guaranteed to also match
+         * {@code previous}. When this is the case, only the items that currently match are tested
+         * again. The default implementation returns true when {@code query} starts with
+         * {@code previous}, which is correct for substring and prefix matching. Override this
+         * method to return false if {@link #onFilter(Object, CharSequence)} doesn't behave this
+         * way. This method is called on the main thread.
+         * @param previous The query that is currently applied to this section
+         * @param query The new query that will be applied
+         * @return true if the new query can only ever match fewer items than the previous one
+         */
+        protected boolean isNarrowing(@NonNull CharSequence previous,
+                                      @NonNull CharSequence query) {
+            return query.toString().startsWith(previous.toString());
+        }
+
+        /**
+         * Converts a position in this section to an index in the backing data set. These values
+         * are only different while this section is filtered.
+         * @param position The index of an item as shown in the adapter
+         * @return The index of this item in {@link #getData()}
+         */
+        public int getDataIndex(int position) {
+            return (mFilteredIndices == null) ? position : mFilteredIndices[position];
+        }
+
+        int[] getFilteredIndices() {
+            return mFilteredIndices;
+        }
+
+        /**
+         * Filters the current data set on the calling thread
+         * @param query The query to filter with, or {@code null} to clear the filter
+         */
+        void refilter(CharSequence query) {
+            mFilterQuery = query;
+            mFilteredIndices = (query == null) ? null : findMatches(mData, query);
+        }
+
+        /**
+         * @param data A data set to test against {@link #onFilter(Object, CharSequence)}
+         * @param query The query to filter with
+         * @return The indices of the items in {@code data} that match {@code query}
+         */
+        int[] findMatches(List<Type> data, CharSequence query) {
+            int[] matches = new int[data.size()];
+            int matchCount = 0;
+            for (int i = 0; i < data.size(); i++) {
+                if (onFilter(data.get(i), query)) {
+                    matches[matchCount++] = i;
+                }
+            }
+            return Arrays.copyOf(matches, matchCount);
+        }
+
+        /**
+         * @param data A data set
+         * @param indices Indices in {@code data}, or {@code null} to select every item
+         * @return The items of {@code data} at {@code indices}
+         */
+        static <Type> List<Type> select(List<Type> data, int[] indices) {
+            if (indices == null) {
+                return data;
+            }
+
+            List<Type> selected = new ArrayList<>(indices.length);
+            for (int index : indices) {
+                selected.add(data.get(index));
+            }
+            return selected;
+        }
+
+        @Override
+        int toSelectionIndex(int position) {
+            return getDataIndex(position);
+        }
+
+        @Override
+        int toSelectionPosition(int index) {
+            if (mFilteredIndices == null) {
+                return index;
+            }
+            int position = Arrays.binarySearch(mFilteredIndices, index);
+            return (position >= 0) ? position : -(position + 1);
+        }
+
+        @Override
+        int getSelectionRunEnd(int start, int end) {
+            if (mFilteredIndices == null) {
+                return end;
+            }
+
+            int run = start + 1;
+            while (run < end && mFilteredIndices[run] == mFilteredIndices[run - 1] + 1) {
+                run++;
+            }
+            return run;
+        }
+
+        CharSequence getFilterQuery() {
+            return mFilterQuery;
+        }
+
+        void setFilter(CharSequence query, int[] filteredIndices) {
+            mFilterQuery = query;
+            mFilteredIndices = filteredIndices;
+        }
+
+        @Override
+        public final int getItemCount(HeterogeneousAdapter adapter) {
+            if (!showSection(adapter)) {
+                return 0;
+            }
+            return (mFilteredIndices == null) ? mData.size() : mFilteredIndices.length;
+        }
+
+        @Override
+        public final Type get(int position) {
+            return mData.get(getDataIndex(position));
+        }
+    }
+
+    /**
+     * A {@link HeterogeneousAdapter.Section} that defers creating its real section until it is
+     * about to be shown. Until then, this section only reports an item count, which may be an
+     * estimate. The real section is created when an item within
+     * {@link HeterogeneousAdapter#setLazySectionDistance(int)} items of this section is bound,
+     * and its actual item count replaces the estimate immediately afterwards.
+     *
+     * If an item from this section is bound before the section has been reconciled, the section
+     * is created immediately. Items past the real section's size are left unbound, and are
+     * removed as soon as the estimate is corrected. Sections with an estimated count of 0 are
+     * materialized as soon as they're added, since none of their items can be bound.
+     *
+     * @param <Type> The type of data that the real section holds
+     */
+    public static class LazySection<Type> extends Section<Type> {
+
+        private final Factory<Type> mFactory;
+        private final int mEstimatedCount;
+
+        private Section<Type> mDelegate;
+        private HeterogeneousAdapter mAttachedAdapter;
+
+        private boolean mMaterializationPosted;
+        private boolean mReconciled;
+
         /**
-         * Gets the number of visible items held by this section. This value handles hiding this
-         * section with {@link #showSection(HeterogeneousAdapter)}, and will return either
-         * {@link #getItemCount()} or {@code 0}.
-         * @param adapter The adapter that this section is attached to
-         * @return The number of visible items that are held by this section
+         * @param estimatedCount The number of items that the real section is expected to have
+         * @param factory Creates the real section. Called on the main thread.
          */
-        public final int getSize(HeterogeneousAdapter adapter) {
-            return showSection(adapter) ? getItemCount(adapter) : 0;
+        public LazySection(int estimatedCount, @NonNull Factory<Type> factory) {
+            mEstimatedCount = estimatedCount;
+            mFactory = factory;
         }
 
         /**
-         * Gets the number of items held by this section
-         * @return The number of items in this section's backing data set
+         * Creates the section that a {@link LazySection} stands in for
+         * @param <Type> The type of data that the section holds
          */
-        public abstract int getItemCount(HeterogeneousAdapter adapter);
+        public interface Factory<Type> {
+
+            /**
+             * @return The real section. This section must not be added to an adapter.
+             */
+            Section<Type> create();
+        }
 
         /**
-         * Returns an item in the data set used to populate a ViewHolder
-         * @param position The index of the item to return
-         * @return The item at the specified index in this Section's data set
+         * @return true if the real section has been created
          */
-        public abstract Type get(int position);
+        public final boolean isMaterialized() {
+            return mDelegate != null;
+        }
 
         /**
-         * Used internally by {@link HeterogeneousAdapter} to set a unique ID for this section.
-         * @param id The ID to use for this Section when {@link RecyclerView} calls
-         *           {@link RecyclerView.Adapter#getItemViewType(int)}
+         * Gets the real section, creating it if it hasn't been already
+         * @return The section created by this LazySection's factory
          */
-        private void setTypeId(int id) {
-            mTypeId = id;
+        public final Section<Type> materialize() {
+            if (mDelegate == null) {
+                mDelegate = mFactory.create();
+                mDelegate.setTypeId(getTypeId());
+                if (mAttachedAdapter != null) {
+                    mDelegate.onAttached(mAttachedAdapter);
+                }
+                if (isInViewport()) {
+                    mDelegate.onEnterViewport();
+                }
+            }
+            return mDelegate;
+        }
+
+        @Override
+        public EnhancedViewHolder<Type> createViewHolder(HeterogeneousAdapter adapter,
+                                                         ViewGroup parent) {
+            return materialize().createViewHolder(adapter, parent);
+        }
+
+        @Override
+        public int getItemCount(HeterogeneousAdapter adapter) {
+            if (!showSection(adapter)) {
+                return 0;
+            }
+            return mReconciled ? mDelegate.getItemCount(adapter) : mEstimatedCount;
         }
 
+        @Override
+        public Type get(int position) {
+            return materialize().get(position);
+        }
+
+        @Override
+        public long getStableId(int position) {
+            if (mReconciled && position < mDelegate.getItemCount(mAttachedAdapter)) {
+                return mDelegate.getStableId(position);
+            }
+            return RecyclerView.NO_ID;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        void onBind(EnhancedViewHolder holder, int position) {
+            Section<Type> delegate = materialize();
+            // Items past the real section's size only exist until this section is reconciled,
+            // which removes them, so they are left unbound instead of being bound to null
+            if (mAttachedAdapter == null || position < delegate.getItemCount(mAttachedAdapter)) {
+                delegate.onBind(holder, position);
+            }
+        }
+
+        @Override
+        public int getCollapsedItemCount() {
+            return isMaterialized() ? mDelegate.getCollapsedItemCount() : 0;
+        }
+
+        @Nullable
+        @Override
+        public CharSequence getSectionLabel() {
+            return isMaterialized() ? mDelegate.getSectionLabel() : null;
+        }
+
+        @Override
+        public int getFixedItemHeight() {
+            return isMaterialized() ? mDelegate.getFixedItemHeight() : 0;
+        }
+
+        @Override
+        protected void onAttached(HeterogeneousAdapter adapter) {
+            super.onAttached(adapter);
+            mAttachedAdapter = adapter;
+            if (isMaterialized()) {
+                mDelegate.onAttached(adapter);
+            }
+        }
+
+        @Override
+        protected void onEnterViewport() {
+            super.onEnterViewport();
+            if (isMaterialized()) {
+                mDelegate.onEnterViewport();
+            }
+        }
+
+        @Override
+        protected void onExitViewport() {
+            super.onExitViewport();
+            if (isMaterialized()) {
+                mDelegate.onExitViewport();
+            }
+        }
+
+        @Override
+        protected void onPrefetch(int position, int count) {
+            if (mReconciled) {
+                mDelegate.onPrefetch(position, count);
+            }
+        }
+
+        @Override
+        protected void onCancelPrefetch(int position, int count) {
+            if (mReconciled) {
+                mDelegate.onCancelPrefetch(position, count);
+            }
+        }
+
+        @Override
+        protected void onTrimMemory(int level) {
+            if (isMaterialized()) {
+                mDelegate.onTrimMemory(level);
+            }
+        }
+
+        @Override
+        protected void onDetached(HeterogeneousAdapter adapter) {
+            super.onDetached(adapter);
+            mAttachedAdapter = null;
+            if (isMaterialized()) {
+                mDelegate.onDetached(adapter);
+            }
+        }
+    }
+
+    /**
+     * Derives a stable key from an item in a {@link ListSection}
+     * @param <Type> The class of item that keys are derived from
+     * @see ListSection#setKeyExtractor(KeyExtractor)
+     */
+    public interface KeyExtractor<Type> {
+
         /**
-         * @return The item type ID as used by
-         *         {@link RecyclerView.Adapter#getItemViewType(int)}. This ID is constant
-         *         for all items in this section. This value should be unique and constant
-         *         to the each class that extends Section. This value MUST be unique among
-         *         all Sections that are put in the same HeterogeneousAdapter.
+         * @param item The item to find a key for
+         * @return A 64-bit key that uniquely identifies this item in its section, such as a
+         *         database row ID or a value from {@link ListSection#hashKey(CharSequence)}
          */
-        public final int getTypeId() {
-            return mTypeId;
-        }
+        long getKey(Type item);
     }
 
     /**
-     * An extension of {@link HeterogeneousAdapter.Section} that always has exactly one item in
-     * the set
-     * @param <Type> The class of the item that this Section shows. You may use {@link Void}
-     *              if this Section has no data
+     * Keeps track of the size and capacity of the primitive array behind an
+     * {@link IntListSection} or {@link LongListSection}. Subclasses own the array, and this class
+     * grows and shifts it when values are inserted or removed.
      */
-    public static abstract class SingletonSection<Type> extends Section<Type> {
+    static abstract class PrimitiveListSection extends Section<Void> {
 
-        private Type mData;
+        static final int DEFAULT_CAPACITY = 16;
+
+        int mSize;
 
         /**
-         * @param data The item to show in this Section
+         * @return The array that holds this section's values
          */
-        public SingletonSection(Type data) {
-            mData = data;
+        abstract Object getArray();
+
+        /**
+         * @return The length of the array returned by {@link #getArray()}
+         */
+        abstract int getCapacity();
+
+        /**
+         * Replaces the array that holds this section's values with a copy of a different length
+         * @param capacity The length of the new array
+         */
+        abstract void resize(int capacity);
+
+        /**
+         * @return The number of values held by this section, regardless of its visibility
+         */
+        public int size() {
+            return mSize;
         }
 
         /**
-         * Replace the current data item. Callers are responsible for calling
+         * Removes every value from this section. Callers are responsible for calling
          * {@link RecyclerView.Adapter#notifyDataSetChanged()} or an equivalent method
-         * @param data The new data item to show in this Section
          */
-        public void setData(Type data) {
-            mData = data;
+        public void clear() {
+            mSize = 0;
         }
 
-        @Override
-        public final int getItemCount(HeterogeneousAdapter adapter) {
-            return showSection(adapter) ? 1 : 0;
+        /**
+         * @param position An index to check
+         * @param size The number of valid indices
+         * @throws IndexOutOfBoundsException If {@code position} isn't between 0 and {@code size}
+         */
+        static void checkIndex(int position, int size) {
+            if (position < 0 || position >= size) {
+                throw new IndexOutOfBoundsException("Index: " + position + ", Size: " + size);
+            }
+        }
+
+        /**
+         * Makes room for a value by shifting every value at or after {@code position} forward,
+         * growing the array if it's full. The caller has to store the new value.
+         * @param position The index that the new value will be stored at
+         */
+        void insertSlot(int position) {
+            checkIndex(position, mSize + 1);
+            if (mSize == getCapacity()) {
+                resize(mSize + (mSize >> 1) + 1);
+            }
+            Object array = getArray();
+            System.arraycopy(array, position, array, position + 1, mSize - position);
+            mSize++;
+        }
+
+        /**
+         * Removes a value by shifting every value after {@code position} back
+         * @param position The index of the value to remove
+         */
+        void removeSlot(int position) {
+            checkIndex(position, mSize);
+            Object array = getArray();
+            System.arraycopy(array, position + 1, array, position, mSize - position - 1);
+            mSize--;
         }
 
         @Override
-        public final Type get(int position) {
-            return mData;
+        public int getItemCount(HeterogeneousAdapter adapter) {
+            return showSection(adapter) ? mSize : 0;
         }
 
+        @Override
+        public final Void get(int position) {
+            return null;
+        }
     }
 
     /**
-     * An extension of {@link HeterogeneousAdapter.Section} used to show a list of items of the
-     * same type
-     * @param <Type> The class of the data that this Section shows.
+     * An extension of {@link HeterogeneousAdapter.Section} used to show a list of {@code int}
+     * values, such as IDs that are resolved from a cache when they're bound. Values are kept in a
+     * growable {@code int[]} and are passed to {@link EnhancedViewHolder#onUpdateInt(int, int)}
+     * without being boxed. {@link #get(int)} always returns {@code null}.
      */
-    public static abstract class ListSection<Type> extends Section<Type> {
+    public static abstract class IntListSection extends PrimitiveListSection {
 
-        private List<Type> mData;
+        private int[] mData;
+
+        public IntListSection() {
+            mData = new int[DEFAULT_CAPACITY];
+        }
 
         /**
-         * @param data The data to populate this Section with
+         * @param data The values to populate this Section with. The array is copied.
          */
-        public ListSection(@NonNull List<Type> data) {
-            mData = data;
+        public IntListSection(@NonNull int[] data) {
+            setData(data, data.length);
         }
 
         /**
-         * @return the backing data set
+         * Replace the active data set. Callers are responsible for calling
+         * {@link RecyclerView.Adapter#notifyDataSetChanged()}
+         * @param data The new values to back this Section. The array is copied.
+         * @param count The number of values to use from the start of {@code data}
          */
-        public List<Type> getData() {
+        public void setData(@NonNull int[] data, int count) {
+            mData = Arrays.copyOf(data, Math.max(count, DEFAULT_CAPACITY));
+            mSize = count;
+        }
+
+        /**
+         * @param position The index of the value to return
+         * @return The value at the specified index in this Section's data set
+         */
+        public int getInt(int position) {
+            checkIndex(position, mSize);
+            return mData[position];
+        }
+
+        /**
+         * Appends a value to the end of this section. Callers are responsible for calling
+         * {@link RecyclerView.Adapter#notifyItemInserted(int)} or an equivalent method
+         * @param value The value to add
+         */
+        public void add(int value) {
+            add(mSize, value);
+        }
+
+        /**
+         * Inserts a value into this section. Callers are responsible for calling
+         * {@link RecyclerView.Adapter#notifyItemInserted(int)} or an equivalent method
+         * @param position The index to insert the value at
+         * @param value The value to add
+         */
+        public void add(int position, int value) {
+            insertSlot(position);
+            mData[position] = value;
+        }
+
+        /**
+         * Replaces a value in this section. Callers are responsible for calling
+         * {@link RecyclerView.Adapter#notifyItemChanged(int)} or an equivalent method
+         * @param position The index of the value to replace
+         * @param value The new value
+         */
+        public void set(int position, int value) {
+            checkIndex(position, mSize);
+            mData[position] = value;
+        }
+
+        /**
+         * Removes a value from this section. Callers are responsible for calling
+         * {@link RecyclerView.Adapter#notifyItemRemoved(int)} or an equivalent method
+         * @param position The index of the value to remove
+         * @return The value that was removed
+         */
+        public int removeAt(int position) {
+            int removed = getInt(position);
+            removeSlot(position);
+            return removed;
+        }
+
+        @Override
+        Object getArray() {
             return mData;
         }
 
+        @Override
+        int getCapacity() {
+            return mData.length;
+        }
+
+        @Override
+        void resize(int capacity) {
+            mData = Arrays.copyOf(mData, capacity);
+        }
+
+        @Override
+        void onBind(EnhancedViewHolder holder, int position) {
+            holder.onUpdateInt(getInt(position), position);
+        }
+    }
+
+    /**
+     * An extension of {@link HeterogeneousAdapter.Section} used to show a list of {@code long}
+     * values, such as database row IDs. Values are kept in a growable {@code long[]} and are
+     * passed to {@link EnhancedViewHolder#onUpdateLong(long, int)} without being boxed.
+     * {@link #get(int)} always returns {@code null}.
+     */
+    public static abstract class LongListSection extends PrimitiveListSection {
+
+        private long[] mData;
+
+        public LongListSection() {
+            mData = new long[DEFAULT_CAPACITY];
+        }
+
+        /**
+         * @param data The values to populate this Section with. The array is copied.
+         */
+        public LongListSection(@NonNull long[] data) {
+            setData(data, data.length);
+        }
+
         /**
          * Replace the active data set. Callers are responsible for calling
          * {@link RecyclerView.Adapter#notifyDataSetChanged()}
-         * @param mData The new data set to back this Section
+         * @param data The new values to back this Section. The array is copied.
+         * @param count The number of values to use from the start of {@code data}
          */
-        public void setData(@NonNull List<Type> mData) {
-            this.mData = mData;
+        public void setData(@NonNull long[] data, int count) {
+            mData = Arrays.copyOf(data, Math.max(count, DEFAULT_CAPACITY));
+            mSize = count;
+        }
+
+        /**
+         * @param position The index of the value to return
+         * @return The value at the specified index in this Section's data set
+         */
+        public long getLong(int position) {
+            checkIndex(position, mSize);
+            return mData[position];
+        }
+
+        /**
+         * Appends a value to the end of this section. Callers are responsible for calling
+         * {@link RecyclerView.Adapter#notifyItemInserted(int)} or an equivalent method
+         * @param value The value to add
+         */
+        public void add(long value) {
+            add(mSize, value);
+        }
+
+        /**
+         * Inserts a value into this section. Callers are responsible for calling
+         * {@link RecyclerView.Adapter#notifyItemInserted(int)} or an equivalent method
+         * @param position The index to insert the value at
+         * @param value The value to add
+         */
+        public void add(int position, long value) {
+            insertSlot(position);
+            mData[position] = value;
+        }
+
+        /**
+         * Replaces a value in this section. Callers are responsible for calling
+         * {@link RecyclerView.Adapter#notifyItemChanged(int)} or an equivalent method
+         * @param position The index of the value to replace
+         * @param value The new value
+         */
+        public void set(int position, long value) {
+            checkIndex(position, mSize);
+            mData[position] = value;
+        }
+
+        /**
+         * Removes a value from this section. Callers are responsible for calling
+         * {@link RecyclerView.Adapter#notifyItemRemoved(int)} or an equivalent method
+         * @param position The index of the value to remove
+         * @return The value that was removed
+         */
+        public long removeAt(int position) {
+            long removed = getLong(position);
+            removeSlot(position);
+            return removed;
         }
 
         @Override
-        public final int getItemCount(HeterogeneousAdapter adapter) {
-            return showSection(adapter) ? mData.size() : 0;
+        Object getArray() {
+            return mData;
         }
 
         @Override
-        public final Type get(int position) {
-            return mData.get(position);
+        int getCapacity() {
+            return mData.length;
+        }
+
+        @Override
+        void resize(int capacity) {
+            mData = Arrays.copyOf(mData, capacity);
+        }
+
+        @Override
+        void onBind(EnhancedViewHolder holder, int position) {
+            holder.onUpdateLong(getLong(position), position);
         }
     }
 }
@@ -0,0 +1,558 @@
+package com.marverenic.adapter;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+import android.view.Choreographer;
+
+import com.marverenic.adapter.HeterogeneousAdapter.Section;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Watches frame timing with {@link Choreographer} and attributes slow frames to the sections of
+ * a {@link HeterogeneousAdapter} whose ViewHolders were created or bound during those frames.
+ * Each section is counted under the name returned by {@link #getSectionName(Section)}, so the
+ * same monitor may be shared by several adapters, and sections of the same class are aggregated
+ * together.
+ *
+ * A frame is the time between two consecutive frame callbacks, which includes layout, any
+ * ViewHolders created or bound by RecyclerView's prefetcher after the frame, and any other work
+ * done on the main thread in that time. A monitor requests a callback on every frame while any
+ * of its adapters are attached to a RecyclerView, so consider only enabling it for a sample of
+ * sessions. Frames aren't monitored below API 16.
+ *
+ * All methods must be called on the main thread.
+ *
+ * @see HeterogeneousAdapter#setJankMonitor(JankMonitor)
+ */
+public class JankMonitor {
+
+    /**
+     * Frames that take longer than this have missed at least one vsync at 60 frames per second
+     */
+    private static final long DEFAULT_SLOW_FRAME_THRESHOLD_MS = 25;
+
+    private static final long NANOS_PER_MILLI = 1000000;
+
+    private final long mSlowFrameThresholdNanos;
+
+    /**
+     * Aggregated statistics for each section name
+     */
+    private final Map<String, SectionStats> mStats;
+
+    /**
+     * The sections that have created or bound ViewHolders since the last frame callback
+     */
+    private final List<SectionStats> mFrameSections;
+
+    /**
+     * The number of adapters using this monitor that are attached to a RecyclerView
+     */
+    private int mStartCount;
+
+    /**
+     * The time of the last frame callback, or {@code 0} if frames aren't being monitored
+     */
+    private long mLastFrameTimeNanos;
+
+    private int mFrameCount;
+    private int mSlowFrameCount;
+    private long mWorstFrameNanos;
+
+    /**
+     * A {@link Choreographer.FrameCallback}. This is stored as an Object so that this class can
+     * still be loaded on platforms that don't have Choreographer.
+     */
+    private Object mFrameCallback;
+
+    /**
+     * Creates a monitor that considers frames longer than 25 milliseconds to be slow
+     */
+    public JankMonitor() {
+        this(DEFAULT_SLOW_FRAME_THRESHOLD_MS);
+    }
+
+    /**
+     * @param slowFrameThresholdMillis The shortest duration of a frame that is considered slow.
+     *                                 Devices with refresh rates higher than 60 Hz may need a
+     *                                 lower threshold.
+     */
+    public JankMonitor(long slowFrameThresholdMillis) {
+        if (slowFrameThresholdMillis <= 0) {
+            throw new IllegalArgumentException("Invalid slow frame threshold "
+                    + slowFrameThresholdMillis);
+        }
+        mSlowFrameThresholdNanos = slowFrameThresholdMillis * NANOS_PER_MILLI;
+        mStats = new HashMap<>();
+        mFrameSections = new ArrayList<>();
+    }
+
+    /**
+     * Gets the name that a section's statistics are reported under. Sections with the same name
+     * are aggregated together. The default implementation uses the name of the section's class.
+     * Override this method if several sections share a class but should be reported separately,
+     * or if class names are obfuscated.
+     * @param section The section to name
+     * @return A name for the section that is stable between sessions
+     */
+    @NonNull
+    protected String getSectionName(@NonNull Section section) {
+        return section.getClass().getName();
+    }
+
+    /**
+     * Aggregates every frame monitored so far into a report. The report isn't updated by later
+     * frames, so it may be serialized on any thread.
+     * @return The statistics collected since this monitor was created or last reset
+     */
+    @NonNull
+    public Report getReport() {
+        List<SectionReport> sections = new ArrayList<>(mStats.size());
+        for (SectionStats stats : mStats.values()) {
+            if (stats.mSlowFrameCount > 0) {
+                sections.add(new SectionReport(stats));
+            }
+        }
+        Collections.sort(sections, new Comparator<SectionReport>() {
+            @Override
+            public int compare(SectionReport first, SectionReport second) {
+                if (first.mSlowFrameCount != second.mSlowFrameCount) {
+                    return (first.mSlowFrameCount > second.mSlowFrameCount) ? -1 : 1;
+                }
+                return first.mName.compareTo(second.mName);
+            }
+        });
+
+        return new Report(mSlowFrameThresholdNanos, mFrameCount, mSlowFrameCount,
+                mWorstFrameNanos, Collections.unmodifiableList(sections));
+    }
+
+    /**
+     * Discards every statistic collected so far, for instance after a report has been exported
+     */
+    public void reset() {
+        // Sections cache their statistics, so they're cleared instead of being discarded
+        for (SectionStats stats : mStats.values()) {
+            stats.resetTotals();
+        }
+        mFrameCount = 0;
+        mSlowFrameCount = 0;
+        mWorstFrameNanos = 0;
+    }
+
+    /**
+     * Starts monitoring frames. Called when an adapter using this monitor is attached to a
+     * RecyclerView.
+     */
+    void start() {
+        if (mStartCount++ == 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            postFrameCallback();
+        }
+    }
+
+    /**
+     * Stops monitoring frames once every call to {@link #start()} has been matched
+     */
+    void stop() {
+        if (mStartCount == 0 || --mStartCount > 0) {
+            return;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            removeFrameCallback();
+        }
+        mLastFrameTimeNanos = 0;
+
+        // The frame in progress can't be measured
+        for (SectionStats stats : mFrameSections) {
+            stats.resetFrame();
+        }
+        mFrameSections.clear();
+    }
+
+    /**
+     * Records a call to
+     * {@link Section#createViewHolder(HeterogeneousAdapter, android.view.ViewGroup)}
+     * @param section The section that created a ViewHolder
+     * @param durationNanos The time taken to create the ViewHolder
+     */
+    void onCreateViewHolder(Section section, long durationNanos) {
+        if (mLastFrameTimeNanos != 0) {
+            getFrameStats(section).recordCreate(durationNanos);
+        }
+    }
+
+    /**
+     * Records a call to {@link EnhancedViewHolder#onUpdate(Object, int)}
+     * @param section The section that bound a ViewHolder
+     * @param durationNanos The time taken to bind the ViewHolder
+     */
+    void onBindViewHolder(Section section, long durationNanos) {
+        if (mLastFrameTimeNanos != 0) {
+            getFrameStats(section).recordBind(durationNanos);
+        }
+    }
+
+    private SectionStats getFrameStats(Section section) {
+        SectionStats stats = section.mJankStats;
+        if (stats == null || stats.mMonitor != this) {
+            String name = getSectionName(section);
+            stats = mStats.get(name);
+            if (stats == null) {
+                stats = new SectionStats(this, name);
+                mStats.put(name, stats);
+            }
+            section.mJankStats = stats;
+        }
+
+        if (!stats.mInFrame) {
+            stats.mInFrame = true;
+            mFrameSections.add(stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Ends the current frame and attributes it to every section that did work during it. Called
+     * by the frame callback, and by tests so that they can control frame timing.
+     * @param frameTimeNanos The time that the next frame started, in nanoseconds
+     */
+    @VisibleForTesting
+    void onFrame(long frameTimeNanos) {
+        if (mLastFrameTimeNanos != 0) {
+            long duration = frameTimeNanos - mLastFrameTimeNanos;
+            mFrameCount++;
+            if (duration >= mSlowFrameThresholdNanos) {
+                mSlowFrameCount++;
+                mWorstFrameNanos = Math.max(mWorstFrameNanos, duration);
+                for (SectionStats stats : mFrameSections) {
+                    stats.recordSlowFrame(duration);
+                }
+            }
+        }
+
+        for (SectionStats stats : mFrameSections) {
+            stats.resetFrame();
+        }
+        mFrameSections.clear();
+        mLastFrameTimeNanos = frameTimeNanos;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void postFrameCallback() {
+        if (mFrameCallback == null) {
+            mFrameCallback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    if (mStartCount > 0) {
+                        onFrame(frameTimeNanos);
+                        Choreographer.getInstance().postFrameCallback(this);
+                    }
+                }
+            };
+        }
+        Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) mFrameCallback);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void removeFrameCallback() {
+        Choreographer.getInstance()
+                .removeFrameCallback((Choreographer.FrameCallback) mFrameCallback);
+    }
+
+    /**
+     * Accumulates the work done by sections with the same name, both in the current frame and in
+     * every slow frame so far
+     */
+    static final class SectionStats {
+
+        private final JankMonitor mMonitor;
+        private final String mName;
+
+        private boolean mInFrame;
+        private int mFrameCreateCount;
+        private int mFrameBindCount;
+        private long mFrameCreateNanos;
+        private long mFrameBindNanos;
+        private long mFrameWorstCreateNanos;
+        private long mFrameWorstBindNanos;
+
+        private int mSlowFrameCount;
+        private int mCreateCount;
+        private int mBindCount;
+        private long mCreateNanos;
+        private long mBindNanos;
+        private long mWorstCreateNanos;
+        private long mWorstBindNanos;
+        private long mWorstFrameNanos;
+
+        SectionStats(JankMonitor monitor, String name) {
+            mMonitor = monitor;
+            mName = name;
+        }
+
+        void recordCreate(long durationNanos) {
+            mFrameCreateCount++;
+            mFrameCreateNanos += durationNanos;
+            mFrameWorstCreateNanos = Math.max(mFrameWorstCreateNanos, durationNanos);
+        }
+
+        void recordBind(long durationNanos) {
+            mFrameBindCount++;
+            mFrameBindNanos += durationNanos;
+            mFrameWorstBindNanos = Math.max(mFrameWorstBindNanos, durationNanos);
+        }
+
+        void recordSlowFrame(long frameNanos) {
+            mSlowFrameCount++;
+            mCreateCount += mFrameCreateCount;
+            mBindCount += mFrameBindCount;
+            mCreateNanos += mFrameCreateNanos;
+            mBindNanos += mFrameBindNanos;
+            mWorstCreateNanos = Math.max(mWorstCreateNanos, mFrameWorstCreateNanos);
+            mWorstBindNanos = Math.max(mWorstBindNanos, mFrameWorstBindNanos);
+            mWorstFrameNanos = Math.max(mWorstFrameNanos, frameNanos);
+        }
+
+        void resetTotals() {
+            mSlowFrameCount = 0;
+            mCreateCount = 0;
+            mBindCount = 0;
+            mCreateNanos = 0;
+            mBindNanos = 0;
+            mWorstCreateNanos = 0;
+            mWorstBindNanos = 0;
+            mWorstFrameNanos = 0;
+        }
+
+        void resetFrame() {
+            mInFrame = false;
+            mFrameCreateCount = 0;
+            mFrameBindCount = 0;
+            mFrameCreateNanos = 0;
+            mFrameBindNanos = 0;
+            mFrameWorstCreateNanos = 0;
+            mFrameWorstBindNanos = 0;
+        }
+    }
+
+    /**
+     * A snapshot of the statistics collected by a {@link JankMonitor}
+     */
+    public static final class Report {
+
+        private final long mSlowFrameThresholdNanos;
+        private final int mFrameCount;
+        private final int mSlowFrameCount;
+        private final long mWorstFrameNanos;
+        private final List<SectionReport> mSections;
+
+        private Report(long slowFrameThresholdNanos, int frameCount, int slowFrameCount,
+                       long worstFrameNanos, List<SectionReport> sections) {
+            mSlowFrameThresholdNanos = slowFrameThresholdNanos;
+            mFrameCount = frameCount;
+            mSlowFrameCount = slowFrameCount;
+            mWorstFrameNanos = worstFrameNanos;
+            mSections = sections;
+        }
+
+        /**
+         * @return The shortest duration of a frame that was considered slow, in nanoseconds
+         */
+        public long getSlowFrameThresholdNanos() {
+            return mSlowFrameThresholdNanos;
+        }
+
+        /**
+         * @return The number of frames that were monitored
+         */
+        public int getFrameCount() {
+            return mFrameCount;
+        }
+
+        /**
+         * @return The number of frames that took at least as long as the slow frame threshold
+         */
+        public int getSlowFrameCount() {
+            return mSlowFrameCount;
+        }
+
+        /**
+         * @return The duration of the longest frame, in nanoseconds
+         */
+        public long getWorstFrameNanos() {
+            return mWorstFrameNanos;
+        }
+
+        /**
+         * @return Every section that created or bound a ViewHolder in a slow frame, in
+         *         descending order of the number of slow frames they were part of
+         */
+        @NonNull
+        public List<SectionReport> getSections() {
+            return mSections;
+        }
+
+        /**
+         * Formats this report as a JSON object so that it can be logged or uploaded
+         * @return A JSON representation of this report. All durations are in nanoseconds.
+         */
+        @NonNull
+        public String toJson() {
+            StringBuilder json = new StringBuilder();
+            json.append("{\"slowFrameThresholdNanos\":").append(mSlowFrameThresholdNanos)
+                    .append(",\"frameCount\":").append(mFrameCount)
+                    .append(",\"slowFrameCount\":").append(mSlowFrameCount)
+                    .append(",\"worstFrameNanos\":").append(mWorstFrameNanos)
+                    .append(",\"sections\":[");
+
+            for (int i = 0; i < mSections.size(); i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                mSections.get(i).appendJson(json);
+            }
+            return json.append("]}").toString();
+        }
+
+        @Override
+        public String toString() {
+            return toJson();
+        }
+    }
+
+    /**
+     * The work done by sections with the same name during slow frames
+     */
+    public static final class SectionReport {
+
+        private final String mName;
+        private final int mSlowFrameCount;
+        private final int mCreateCount;
+        private final int mBindCount;
+        private final long mCreateNanos;
+        private final long mBindNanos;
+        private final long mWorstCreateNanos;
+        private final long mWorstBindNanos;
+        private final long mWorstFrameNanos;
+
+        private SectionReport(SectionStats stats) {
+            mName = stats.mName;
+            mSlowFrameCount = stats.mSlowFrameCount;
+            mCreateCount = stats.mCreateCount;
+            mBindCount = stats.mBindCount;
+            mCreateNanos = stats.mCreateNanos;
+            mBindNanos = stats.mBindNanos;
+            mWorstCreateNanos = stats.mWorstCreateNanos;
+            mWorstBindNanos = stats.mWorstBindNanos;
+            mWorstFrameNanos = stats.mWorstFrameNanos;
+        }
+
+        /**
+         * @return The name of the section, as returned by
+         *         {@link JankMonitor#getSectionName(Section)}
+         */
+        @NonNull
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * @return The number of slow frames in which this section created or bound a ViewHolder
+         */
+        public int getSlowFrameCount() {
+            return mSlowFrameCount;
+        }
+
+        /**
+         * @return The number of ViewHolders this section created during slow frames
+         */
+        public int getCreateCount() {
+            return mCreateCount;
+        }
+
+        /**
+         * @return The number of ViewHolders this section bound during slow frames
+         */
+        public int getBindCount() {
+            return mBindCount;
+        }
+
+        /**
+         * @return The total time spent creating this section's ViewHolders during slow frames,
+         *         in nanoseconds
+         */
+        public long getCreateNanos() {
+            return mCreateNanos;
+        }
+
+        /**
+         * @return The total time spent binding this section's ViewHolders during slow frames,
+         *         in nanoseconds
+         */
+        public long getBindNanos() {
+            return mBindNanos;
+        }
+
+        /**
+         * @return The longest time taken to create one of this section's ViewHolders during a
+         *         slow frame, in nanoseconds
+         */
+        public long getWorstCreateNanos() {
+            return mWorstCreateNanos;
+        }
+
+        /**
+         * @return The longest time taken to bind one of this section's ViewHolders during a slow
+         *         frame, in nanoseconds
+         */
+        public long getWorstBindNanos() {
+            return mWorstBindNanos;
+        }
+
+        /**
+         * @return The duration of the longest frame that this section was part of, in
+         *         nanoseconds
+         */
+        public long getWorstFrameNanos() {
+            return mWorstFrameNanos;
+        }
+
+        private void appendJson(StringBuilder json) {
+            json.append("{\"name\":");
+            appendJsonString(json, mName);
+            json.append(",\"slowFrameCount\":").append(mSlowFrameCount)
+                    .append(",\"createCount\":").append(mCreateCount)
+                    .append(",\"bindCount\":").append(mBindCount)
+                    .append(",\"createNanos\":").append(mCreateNanos)
+                    .append(",\"bindNanos\":").append(mBindNanos)
+                    .append(",\"worstCreateNanos\":").append(mWorstCreateNanos)
+                    .append(",\"worstBindNanos\":").append(mWorstBindNanos)
+                    .append(",\"worstFrameNanos\":").append(mWorstFrameNanos)
+                    .append('}');
+        }
+
+        private static void appendJsonString(StringBuilder json, String value) {
+            json.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    json.append('\\').append(c);
+                } else if (c < 0x20) {
+                    json.append(String.format("\\u%04x", (int) c));
+                } else {
+                    json.append(c);
+                }
+            }
+            json.append('"');
+        }
+    }
+}
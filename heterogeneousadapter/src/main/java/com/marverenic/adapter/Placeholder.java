@@ -0,0 +1,77 @@
+package com.marverenic.adapter;
+
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * Generates skeleton Views that reserve space for items that haven't been loaded yet. A single
+ * view type is shared by the placeholders of every section, so placeholder Views are recycled
+ * between sections.
+ * @see HeterogeneousAdapter#setPlaceholder(Placeholder)
+ * @see HeterogeneousAdapter#showPlaceholders(HeterogeneousAdapter.Section, int)
+ */
+public abstract class Placeholder {
+
+    /**
+     * Generates a view to be shown in place of an item that hasn't been loaded. This view should
+     * be inexpensive to create and bind, and should be about the same size as the items that will
+     * replace it.
+     * @param adapter The {@link RecyclerView.Adapter} that is requesting this view
+     * @param parent The ViewGroup that this view will be attached to
+     * @return A view representing an item that is loading
+     */
+    public abstract View onCreateView(RecyclerView.Adapter<EnhancedViewHolder> adapter,
+                                      ViewGroup parent);
+
+    /**
+     * Called when a View generated by {@link #onCreateView(RecyclerView.Adapter, ViewGroup)} is
+     * about to be shown for a section. The default implementation does nothing.
+     * @param placeholderView The view to update
+     * @param section The section that this placeholder is reserving space for
+     * @param position The index of this placeholder in its section
+     */
+    public void onUpdate(View placeholderView, HeterogeneousAdapter.Section section,
+                         int position) {
+
+    }
+
+    /**
+     * Wraps Views created by {@link #onCreateView(RecyclerView.Adapter, ViewGroup)} in a
+     * {@link Placeholder.PlaceholderViewHolder} so that they can be used in a RecyclerView
+     * @param adapter The adapter requesting a ViewHolder
+     * @param parent The ViewGroup that this ViewHolder will be attached to
+     * @return A ViewHolder used to reserve space for an item that is loading
+     */
+    public final PlaceholderViewHolder createViewHolder(
+            RecyclerView.Adapter<EnhancedViewHolder> adapter, ViewGroup parent) {
+        return new PlaceholderViewHolder(onCreateView(adapter, parent), this);
+    }
+
+    /**
+     * Implementation of {@link EnhancedViewHolder} used to wrap a placeholder view to be used with
+     * a {@link RecyclerView}
+     */
+    public static final class PlaceholderViewHolder extends EnhancedViewHolder<Void> {
+
+        private Placeholder mPlaceholder;
+
+        /**
+         * Instances are only created in
+         * {@link Placeholder#createViewHolder(RecyclerView.Adapter, ViewGroup)}
+         * @param itemView The View of the placeholder
+         * @param placeholder The Placeholder that created this ViewHolder which will later be
+         *                    used as a callback to update this ViewHolder
+         */
+        private PlaceholderViewHolder(View itemView, Placeholder placeholder) {
+            super(itemView);
+            mPlaceholder = placeholder;
+        }
+
+        @Override
+        public void onUpdate(Void item, int sectionPosition) {
+            mPlaceholder.onUpdate(itemView, getSection(), sectionPosition);
+        }
+
+    }
+}
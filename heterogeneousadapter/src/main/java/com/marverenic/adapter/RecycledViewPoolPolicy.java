@@ -0,0 +1,78 @@
+package com.marverenic.adapter;
+
+import android.support.v7.widget.RecyclerView;
+
+/**
+ * Decides how many ViewHolders the {@link RecyclerView.RecycledViewPool} keeps for each section
+ * of a {@link HeterogeneousAdapter}. Every section has its own view type, and RecyclerView keeps
+ * five recycled ViewHolders per view type by default. That is too few for sections that show many
+ * small items at once, such as grids of thumbnails, and too many for sections that only ever
+ * show one item.
+ *
+ * This policy sizes each section's pool from the largest number of that section's ViewHolders
+ * that have been attached at the same time, clamped between a minimum and a maximum. Override
+ * {@link #getPoolSize(HeterogeneousAdapter.Section, int)} to customize the size of individual
+ * sections.
+ *
+ * @see HeterogeneousAdapter#setRecycledViewPoolPolicy(RecycledViewPoolPolicy)
+ */
+public class RecycledViewPoolPolicy {
+
+    private static final int DEFAULT_MIN_POOL_SIZE = 2;
+    private static final int DEFAULT_MAX_POOL_SIZE = 25;
+    private static final int DEFAULT_EXTRA_VIEWS = 1;
+
+    private final int mMinPoolSize;
+    private final int mMaxPoolSize;
+    private final int mExtraViews;
+
+    /**
+     * Creates a policy that keeps between 2 and 25 ViewHolders for each section
+     */
+    public RecycledViewPoolPolicy() {
+        this(DEFAULT_MIN_POOL_SIZE, DEFAULT_MAX_POOL_SIZE, DEFAULT_EXTRA_VIEWS);
+    }
+
+    /**
+     * @param minPoolSize The smallest pool to keep for any section
+     * @param maxPoolSize The largest pool to keep for any section
+     * @param extraViews The number of ViewHolders to keep in addition to the most that have been
+     *                   attached at once
+     */
+    public RecycledViewPoolPolicy(int minPoolSize, int maxPoolSize, int extraViews) {
+        if (minPoolSize < 0 || maxPoolSize < minPoolSize) {
+            throw new IllegalArgumentException("Invalid pool size range [" + minPoolSize + ", "
+                    + maxPoolSize + "]");
+        }
+        mMinPoolSize = minPoolSize;
+        mMaxPoolSize = maxPoolSize;
+        mExtraViews = extraViews;
+    }
+
+    /**
+     * Gets the number of recycled ViewHolders to keep for a section. Called whenever the number
+     * of the section's ViewHolders that are attached at once reaches a new peak.
+     * @param section The section to size the pool of
+     * @param peakAttachedCount The most ViewHolders of this section that have been attached to
+     *                          a window at the same time
+     * @return The maximum number of recycled ViewHolders to keep for this section
+     */
+    public int getPoolSize(HeterogeneousAdapter.Section section, int peakAttachedCount) {
+        int size = peakAttachedCount + mExtraViews;
+        return Math.max(mMinPoolSize, Math.min(mMaxPoolSize, size));
+    }
+
+    /**
+     * @return The smallest pool that this policy keeps for any section
+     */
+    public final int getMinPoolSize() {
+        return mMinPoolSize;
+    }
+
+    /**
+     * @return The largest pool that this policy keeps for any section
+     */
+    public final int getMaxPoolSize() {
+        return mMaxPoolSize;
+    }
+}
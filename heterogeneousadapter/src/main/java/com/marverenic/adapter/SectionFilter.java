@@ -0,0 +1,322 @@
+package com.marverenic.adapter;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.marverenic.adapter.HeterogeneousAdapter.ListSection;
+import com.marverenic.adapter.HeterogeneousAdapter.Section;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the queries passed to {@link HeterogeneousAdapter#filter(CharSequence)}. Each query is
+ * matched on a shared background thread and then applied on the main thread with range
+ * notifications. Only the most recent query is ever applied; older queries stop as soon as they
+ * notice they've been superseded.
+ */
+final class SectionFilter {
+
+    /**
+     * How many items are tested between checks for a newer query
+     */
+    private static final int CANCELLATION_CHECK_INTERVAL = 256;
+
+    private static final int OP_REMOVE = 0;
+    private static final int OP_INSERT = 1;
+
+    private final HeterogeneousAdapter mAdapter;
+    private final Handler mHandler;
+    private final AtomicInteger mGeneration;
+
+    private CharSequence mQuery;
+
+    SectionFilter(HeterogeneousAdapter adapter) {
+        mAdapter = adapter;
+        mHandler = new Handler(Looper.getMainLooper());
+        mGeneration = new AtomicInteger();
+    }
+
+    /**
+     * Starts filtering all {@link ListSection ListSections} in the adapter. Must be called on the
+     * main thread.
+     * @param query The query to filter with, or {@code null} to clear the filter
+     */
+    void filter(CharSequence query) {
+        final int generation = mGeneration.incrementAndGet();
+        final CharSequence filterQuery =
+                (query == null || query.length() == 0) ? null : query.toString();
+        mQuery = filterQuery;
+        final List<Pass> passes = new ArrayList<>();
+
+        for (int i = 0; i < mAdapter.getSectionCount(); i++) {
+            Section section = mAdapter.getSection(i);
+            if (section instanceof ListSection) {
+                passes.add(new Pass((ListSection) section, filterQuery));
+            }
+        }
+
+        AdapterExecutors.getBackgroundExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Pass pass : passes) {
+                    if (!pass.run(mGeneration, generation)) {
+                        return;
+                    }
+                }
+
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        apply(generation, passes);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @return The most recent query passed to {@link #filter(CharSequence)}, which may still be
+     *         running, or {@code null} if the filter has been cleared
+     */
+    CharSequence getQuery() {
+        return mQuery;
+    }
+
+    private boolean isCancelled(int generation) {
+        return mGeneration.get() != generation;
+    }
+
+    private void apply(int generation, List<Pass> passes) {
+        if (isCancelled(generation)) {
+            return;
+        }
+
+        int sectionCount = mAdapter.getSectionCount();
+        int[] oldSizes = new int[sectionCount];
+        for (int i = 0; i < sectionCount; i++) {
+            oldSizes[i] = mAdapter.getSection(i).getVisibleItemCount(mAdapter);
+        }
+
+        List<Pass> applied = new ArrayList<>(passes.size());
+        for (Pass pass : passes) {
+            if (!pass.isCurrent()) {
+                // The section's data was replaced while the query ran, so filter it again here
+                pass = new Pass(pass.mSection, pass.mQuery);
+                pass.run(mGeneration, generation);
+            }
+            pass.mSection.setFilter(pass.mQuery, pass.mNewIndices);
+            applied.add(pass);
+        }
+
+        if (applied.isEmpty()) {
+            return;
+        }
+
+        // Range notifications are only safe if every section that changed size is one of the
+        // filtered sections and stayed visible. Everything else falls back to a full refresh.
+        boolean granular = true;
+        int oldTotal = 0;
+        int newTotal = 0;
+        int[] offsets = new int[sectionCount];
+        int[] newSizes = new int[sectionCount];
+        for (int i = 0; i < sectionCount; i++) {
+            Section section = mAdapter.getSection(i);
+            newSizes[i] = section.getVisibleItemCount(mAdapter);
+            Pass pass = findPass(applied, section);
+
+            if (pass == null) {
+                granular &= newSizes[i] == oldSizes[i];
+            } else if (oldSizes[i] != 0 || newSizes[i] != 0) {
+                granular &= oldSizes[i] == pass.getOldSize()
+                        && newSizes[i] == pass.getNewSize();
+            }
+
+            offsets[i] = oldTotal;
+            oldTotal += oldSizes[i];
+            newTotal += newSizes[i];
+        }
+
+        if (!granular || oldTotal == 0 || newTotal == 0) {
+            mAdapter.notifyDataSetChanged();
+            return;
+        }
+
+        // Dispatch from the bottom up so that earlier offsets stay valid. Sections that were
+        // empty still need to be notified if the new query revealed some of their items.
+        for (int i = sectionCount - 1; i >= 0; i--) {
+            Pass pass = findPass(applied, mAdapter.getSection(i));
+            if (pass != null && (oldSizes[i] != 0 || newSizes[i] != 0)) {
+                pass.dispatch(mAdapter, offsets[i]);
+            }
+        }
+    }
+
+    private static Pass findPass(List<Pass> passes, Section section) {
+        for (Pass pass : passes) {
+            if (pass.mSection == section) {
+                return pass;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The work needed to filter a single section. All state is captured on the main thread when
+     * the pass is created so that the background thread never reads from the section directly.
+     * Only the items that will be tested are copied, so clearing the filter copies nothing and a
+     * narrowing query only copies the items that currently match.
+     */
+    private static final class Pass {
+
+        private final ListSection<Object> mSection;
+        private final List<Object> mDataList;
+        private final int mDataSize;
+        private final int[] mOldIndices;
+        private final CharSequence mOldQuery;
+        private final CharSequence mQuery;
+        private final boolean mNarrowing;
+
+        /**
+         * The items to test, which are the items at {@link #mOldIndices} while narrowing, or
+         * every item otherwise. {@code null} if the filter is being cleared.
+         */
+        private final Object[] mCandidates;
+
+        private int[] mNewIndices;
+
+        @SuppressWarnings("unchecked")
+        Pass(ListSection section, CharSequence query) {
+            mSection = (ListSection<Object>) section;
+            mDataList = mSection.getData();
+            mDataSize = mDataList.size();
+            mOldIndices = mSection.getFilteredIndices();
+            mOldQuery = mSection.getFilterQuery();
+            mQuery = query;
+            mNarrowing = query != null && mOldIndices != null && mOldQuery != null
+                    && mSection.isNarrowing(mOldQuery, query);
+
+            if (query == null) {
+                mCandidates = null;
+            } else if (mNarrowing) {
+                mCandidates = new Object[mOldIndices.length];
+                for (int i = 0; i < mOldIndices.length; i++) {
+                    mCandidates[i] = mDataList.get(mOldIndices[i]);
+                }
+            } else {
+                mCandidates = mDataList.toArray();
+            }
+        }
+
+        /**
+         * Tests items against the query. Called on the background thread.
+         * @param currentGeneration The generation of the most recently started query
+         * @param generation The generation of the query this pass belongs to
+         * @return false if this pass was cancelled before finishing
+         */
+        boolean run(AtomicInteger currentGeneration, int generation) {
+            if (mQuery == null) {
+                mNewIndices = null;
+                return true;
+            }
+
+            int[] matches = new int[mCandidates.length];
+            int matchCount = 0;
+            for (int i = 0; i < mCandidates.length; i++) {
+                if (i % CANCELLATION_CHECK_INTERVAL == 0
+                        && currentGeneration.get() != generation) {
+                    return false;
+                }
+
+                if (mSection.onFilter(mCandidates[i], mQuery)) {
+                    matches[matchCount++] = mNarrowing ? mOldIndices[i] : i;
+                }
+            }
+
+            mNewIndices = Arrays.copyOf(matches, matchCount);
+            return true;
+        }
+
+        /**
+         * @return true if the section hasn't been changed since this pass was created
+         */
+        boolean isCurrent() {
+            return mSection.getData() == mDataList
+                    && mDataList.size() == mDataSize
+                    && mSection.getFilteredIndices() == mOldIndices;
+        }
+
+        int getOldSize() {
+            return (mOldIndices == null) ? mDataSize : mOldIndices.length;
+        }
+
+        int getNewSize() {
+            return (mNewIndices == null) ? mDataSize : mNewIndices.length;
+        }
+
+        private int oldIndexAt(int i) {
+            return (mOldIndices == null) ? i : mOldIndices[i];
+        }
+
+        private int newIndexAt(int i) {
+            return (mNewIndices == null) ? i : mNewIndices[i];
+        }
+
+        /**
+         * Notifies the adapter of the items that were hidden and shown by this pass. Both index
+         * lists are sorted, so they're merged in a single walk. The resulting operations are
+         * dispatched in reverse so that each one is positioned against untouched items.
+         * @param adapter The adapter to notify
+         * @param offset The adapter position of the first item in this section
+         */
+        void dispatch(HeterogeneousAdapter adapter, int offset) {
+            int oldSize = getOldSize();
+            int newSize = getNewSize();
+
+            int[] ops = new int[3 * 16];
+            int opCount = 0;
+
+            int i = 0;
+            int j = 0;
+            while (i < oldSize || j < newSize) {
+                if (opCount == ops.length) {
+                    ops = Arrays.copyOf(ops, ops.length * 2);
+                }
+
+                int oldIndex = (i < oldSize) ? oldIndexAt(i) : Integer.MAX_VALUE;
+                int newIndex = (j < newSize) ? newIndexAt(j) : Integer.MAX_VALUE;
+
+                if (oldIndex == newIndex) {
+                    i++;
+                    j++;
+                } else if (oldIndex < newIndex) {
+                    int start = i;
+                    while (i < oldSize && oldIndexAt(i) < newIndex) {
+                        i++;
+                    }
+                    ops[opCount++] = OP_REMOVE;
+                    ops[opCount++] = start;
+                    ops[opCount++] = i - start;
+                } else {
+                    int start = j;
+                    while (j < newSize && newIndexAt(j) < oldIndex) {
+                        j++;
+                    }
+                    ops[opCount++] = OP_INSERT;
+                    ops[opCount++] = i;
+                    ops[opCount++] = j - start;
+                }
+            }
+
+            for (int op = opCount - 3; op >= 0; op -= 3) {
+                if (ops[op] == OP_REMOVE) {
+                    adapter.notifyItemRangeRemoved(offset + ops[op + 1], ops[op + 2]);
+                } else {
+                    adapter.notifyItemRangeInserted(offset + ops[op + 1], ops[op + 2]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.marverenic.adapter;
+
+import java.util.Arrays;
+
+/**
+ * Keeps track of the number of visible items in each section of a {@link HeterogeneousAdapter}
+ * so that the position of a section, and the section that holds a position, can be found without
+ * asking every section for its size. Sizes are stored in a Fenwick tree, which allows a single
+ * section's size to be changed, and any lookup to be made, in O(log n) time.
+ */
+final class SectionOffsetIndex {
+
+    private int mCount;
+    private int[] mSizes;
+    private int[] mTree;
+    private int mTotal;
+
+    /**
+     * The largest power of two that is no larger than {@link #mCount}. Used as the starting step
+     * when searching the tree.
+     */
+    private int mHighestBit;
+
+    SectionOffsetIndex() {
+        mSizes = new int[0];
+        mTree = new int[1];
+    }
+
+    /**
+     * Replaces every entry in this index
+     * @param sizes The number of items in each section. The array is not retained.
+     * @param count The number of sections, which must be no larger than {@code sizes.length}
+     */
+    void rebuild(int[] sizes, int count) {
+        mCount = count;
+        if (mSizes.length < count) {
+            mSizes = new int[count];
+            mTree = new int[count + 1];
+        } else {
+            Arrays.fill(mTree, 0);
+        }
+
+        mTotal = 0;
+        for (int i = 0; i < count; i++) {
+            mSizes[i] = sizes[i];
+            mTotal += sizes[i];
+
+            // Build the tree in linear time by pushing each node's sum into its parent
+            int node = i + 1;
+            mTree[node] += sizes[i];
+            int parent = node + (node & -node);
+            if (parent <= count) {
+                mTree[parent] += mTree[node];
+            }
+        }
+
+        mHighestBit = (count == 0) ? 0 : Integer.highestOneBit(count);
+    }
+
+    /**
+     * @return The number of sections in this index
+     */
+    int getSectionCount() {
+        return mCount;
+    }
+
+    /**
+     * @return The sum of all section sizes
+     */
+    int getTotal() {
+        return mTotal;
+    }
+
+    /**
+     * @param section The index of a section
+     * @return The number of visible items in that section
+     */
+    int getSize(int section) {
+        return mSizes[section];
+    }
+
+    /**
+     * Changes the size of a single section
+     * @param section The index of the section to resize
+     * @param size The new number of visible items in the section
+     */
+    void setSize(int section, int size) {
+        int delta = size - mSizes[section];
+        if (delta == 0) {
+            return;
+        }
+
+        mSizes[section] = size;
+        mTotal += delta;
+        for (int node = section + 1; node <= mCount; node += node & -node) {
+            mTree[node] += delta;
+        }
+    }
+
+    /**
+     * @param section The index of a section, or {@link #getSectionCount()}
+     * @return The number of items in all sections before the given section
+     */
+    int getOffset(int section) {
+        int sum = 0;
+        for (int node = section; node > 0; node -= node & -node) {
+            sum += mTree[node];
+        }
+        return sum;
+    }
+
+    /**
+     * Finds the section that contains an item
+     * @param position The position of an item in the entire data set
+     * @return The index of the section holding this position, or {@code -1} if the position is
+     *         out of bounds. Sections with no items are never returned.
+     */
+    int findSection(int position) {
+        if (position < 0 || position >= mTotal) {
+            return -1;
+        }
+
+        // Find the largest number of leading sections whose sizes add up to at most position
+        int node = 0;
+        int remaining = position;
+        for (int step = mHighestBit; step > 0; step >>= 1) {
+            int next = node + step;
+            if (next <= mCount && mTree[next] <= remaining) {
+                node = next;
+                remaining -= mTree[next];
+            }
+        }
+        return node;
+    }
+}
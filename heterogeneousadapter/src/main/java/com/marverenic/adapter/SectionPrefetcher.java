@@ -0,0 +1,379 @@
+package com.marverenic.adapter;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+import com.marverenic.adapter.HeterogeneousAdapter.Section;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tells the sections of a {@link HeterogeneousAdapter} which of their items are about to be
+ * scrolled onto the screen, so that they can start loading images or other data before those
+ * items are bound. See {@link Section#onPrefetch(int, int)}.
+ *
+ * The number of items to prefetch grows with scroll velocity, and only items in the direction
+ * of the scroll are prefetched. When the list changes direction, or prefetched items are scrolled
+ * past without being shown, their requests are cancelled with
+ * {@link Section#onCancelPrefetch(int, int)}. Requests for items that become visible are
+ * considered fulfilled and aren't cancelled.
+ *
+ * The RecyclerView must use a {@link LinearLayoutManager} or one of its subclasses.
+ */
+public class SectionPrefetcher extends RecyclerView.OnScrollListener {
+
+    private static final int DEFAULT_MIN_DISTANCE = 2;
+    private static final int DEFAULT_MAX_DISTANCE = 30;
+    private static final long DEFAULT_LOOKAHEAD_MILLIS = 300;
+
+    /**
+     * How much each new velocity sample contributes to the smoothed velocity
+     */
+    private static final float VELOCITY_SMOOTHING = 0.4f;
+
+    private int mMinDistance;
+    private int mMaxDistance;
+    private long mLookaheadMillis;
+
+    private RecyclerView mRecyclerView;
+    private HeterogeneousAdapter mAdapter;
+    private RecyclerView.AdapterDataObserver mObserver;
+
+    /**
+     * The requests that have been sent to sections and haven't been fulfilled or cancelled
+     */
+    private final List<Request> mRequests;
+
+    /**
+     * Requests that have been fulfilled or cancelled and can be reused, so that scrolling doesn't
+     * allocate
+     */
+    private final List<Request> mRecycledRequests;
+
+    /**
+     * The smoothed scroll velocity in pixels per millisecond. Positive values scroll towards the
+     * end of the list.
+     */
+    private float mVelocity;
+    private long mLastScrollTime;
+
+    public SectionPrefetcher() {
+        mMinDistance = DEFAULT_MIN_DISTANCE;
+        mMaxDistance = DEFAULT_MAX_DISTANCE;
+        mLookaheadMillis = DEFAULT_LOOKAHEAD_MILLIS;
+        mRequests = new ArrayList<>();
+        mRecycledRequests = new ArrayList<>();
+    }
+
+    /**
+     * Sets the number of items to prefetch while scrolling slowly
+     * @param minDistance The minimum number of items past the edge of the screen to prefetch
+     */
+    public void setMinDistance(int minDistance) {
+        mMinDistance = minDistance;
+    }
+
+    /**
+     * Sets the number of items to prefetch while flinging
+     * @param maxDistance The maximum number of items past the edge of the screen to prefetch
+     */
+    public void setMaxDistance(int maxDistance) {
+        mMaxDistance = maxDistance;
+    }
+
+    /**
+     * Sets how far ahead to prefetch in time. At the current scroll velocity, every item that
+     * will be scrolled onto the screen within this much time is prefetched.
+     * @param lookaheadMillis The time to look ahead, in milliseconds
+     */
+    public void setLookaheadMillis(long lookaheadMillis) {
+        mLookaheadMillis = lookaheadMillis;
+    }
+
+    /**
+     * Attaches this SectionPrefetcher to a RecyclerView. The adapter must already be set.
+     * @param recyclerView The RecyclerView to prefetch items for
+     */
+    public void attachToRecyclerView(@NonNull RecyclerView recyclerView) {
+        if (!(recyclerView.getAdapter() instanceof HeterogeneousAdapter)) {
+            throw new IllegalArgumentException("SectionPrefetcher can only be used with a "
+                    + "RecyclerView whose adapter is a HeterogeneousAdapter");
+        }
+
+        detachFromRecyclerView();
+        mRecyclerView = recyclerView;
+        mAdapter = (HeterogeneousAdapter) recyclerView.getAdapter();
+
+        mObserver = new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                cancelAll();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                cancelAll();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                cancelAll();
+            }
+
+            @Override
+            public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+                cancelAll();
+            }
+        };
+
+        mAdapter.registerAdapterDataObserver(mObserver);
+        mRecyclerView.addOnScrollListener(this);
+    }
+
+    /**
+     * Removes this SectionPrefetcher from the RecyclerView it was attached to, if any, and
+     * cancels all outstanding requests
+     */
+    public void detachFromRecyclerView() {
+        if (mRecyclerView == null) {
+            return;
+        }
+
+        cancelAll();
+        mAdapter.unregisterAdapterDataObserver(mObserver);
+        mRecyclerView.removeOnScrollListener(this);
+        mRecyclerView = null;
+        mAdapter = null;
+        resetVelocity();
+    }
+
+    private void resetVelocity() {
+        mVelocity = 0;
+        mLastScrollTime = 0;
+    }
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+        // The next scroll starts from rest, so it shouldn't be smoothed against the last one
+        if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+            resetVelocity();
+        }
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        RecyclerView.LayoutManager layoutManager = recyclerView.getLayoutManager();
+        if (!(layoutManager instanceof LinearLayoutManager) || mAdapter == null) {
+            return;
+        }
+
+        LinearLayoutManager linearLayoutManager = (LinearLayoutManager) layoutManager;
+        boolean vertical = linearLayoutManager.getOrientation() == LinearLayoutManager.VERTICAL;
+        int delta = vertical ? dy : dx;
+        if (delta == 0) {
+            return;
+        }
+
+        long now = SystemClock.uptimeMillis();
+        long elapsed = Math.max(1, now - mLastScrollTime);
+        float velocity = (float) delta / elapsed;
+        if (mLastScrollTime == 0 || Math.signum(velocity) != Math.signum(mVelocity)) {
+            mVelocity = velocity;
+        } else {
+            mVelocity += (velocity - mVelocity) * VELOCITY_SMOOTHING;
+        }
+        mLastScrollTime = now;
+
+        int first = linearLayoutManager.findFirstVisibleItemPosition();
+        int last = linearLayoutManager.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION || last == RecyclerView.NO_POSITION) {
+            return;
+        }
+
+        int extent = vertical ? recyclerView.getHeight() : recyclerView.getWidth();
+        float itemSize = (float) extent / (last - first + 1);
+        int distance = mMinDistance;
+        if (itemSize > 0) {
+            distance += (int) (Math.abs(mVelocity) * mLookaheadMillis / itemSize);
+        }
+        distance = Math.min(distance, mMaxDistance);
+
+        int start;
+        int end;
+        if (mVelocity > 0) {
+            start = last + 1;
+            end = Math.min(mAdapter.getItemCount(), start + distance);
+        } else {
+            end = first;
+            start = Math.max(0, end - distance);
+        }
+
+        update(start, end, first, last);
+    }
+
+    /**
+     * Moves the prefetch window, cancelling requests that fell out of it and sending requests for
+     * items that entered it
+     * @param start The first adapter position to prefetch
+     * @param end The adapter position after the last item to prefetch
+     * @param firstVisible The first visible adapter position
+     * @param lastVisible The last visible adapter position
+     */
+    private void update(int start, int end, int firstVisible, int lastVisible) {
+        int keptStart = Integer.MAX_VALUE;
+        int keptEnd = Integer.MIN_VALUE;
+
+        // Requests are trimmed in place and compacted to the front of the list
+        int keptCount = 0;
+        for (int i = 0; i < mRequests.size(); i++) {
+            Request request = mRequests.get(i);
+            int requestEnd = request.mAdapterStart + request.mCount;
+
+            // Split the request into the parts before, inside, and after the new window
+            int insideStart = Math.max(request.mAdapterStart, start);
+            int insideEnd = Math.min(requestEnd, end);
+
+            retire(request, request.mAdapterStart, Math.min(requestEnd, start),
+                    firstVisible, lastVisible);
+            retire(request, Math.max(request.mAdapterStart, end), requestEnd,
+                    firstVisible, lastVisible);
+
+            if (insideStart < insideEnd) {
+                request.trim(insideStart, insideEnd);
+                mRequests.set(keptCount++, request);
+                keptStart = Math.min(keptStart, insideStart);
+                keptEnd = Math.max(keptEnd, insideEnd);
+            } else {
+                mRecycledRequests.add(request);
+            }
+        }
+
+        for (int i = mRequests.size() - 1; i >= keptCount; i--) {
+            mRequests.remove(i);
+        }
+
+        if (keptStart >= keptEnd) {
+            send(start, end);
+        } else {
+            send(start, keptStart);
+            send(keptEnd, end);
+        }
+    }
+
+    /**
+     * Cancels part of a request, except for any items that are now visible
+     */
+    private void retire(Request request, int from, int to, int firstVisible, int lastVisible) {
+        if (from >= to) {
+            return;
+        }
+
+        int visibleStart = Math.max(from, firstVisible);
+        int visibleEnd = Math.min(to, lastVisible + 1);
+        if (visibleStart >= visibleEnd) {
+            cancel(request, from, to);
+        } else {
+            if (from < visibleStart) {
+                cancel(request, from, visibleStart);
+            }
+            if (visibleEnd < to) {
+                cancel(request, visibleEnd, to);
+            }
+        }
+    }
+
+    /**
+     * Cancels the items of a request between two adapter positions
+     */
+    private void cancel(Request request, int from, int to) {
+        request.mSection.onCancelPrefetch(request.getPosition(from), to - from);
+    }
+
+    private void cancelAll() {
+        // Positions may already refer to different items, so cancel by section position instead
+        for (Request request : mRequests) {
+            request.mSection.onCancelPrefetch(request.mPosition, request.mCount);
+        }
+        mRecycledRequests.addAll(mRequests);
+        mRequests.clear();
+    }
+
+    /**
+     * Sends prefetch requests for a range of adapter positions, split by section
+     */
+    private void send(int start, int end) {
+        int position = start;
+        while (position < end) {
+            int sectionIndex = mAdapter.getSectionIndexForPosition(position);
+            if (sectionIndex == -1) {
+                return;
+            }
+
+            int sectionStart = mAdapter.getSectionStart(sectionIndex);
+            Section section = mAdapter.getSection(sectionIndex);
+            int sectionEnd = Math.min(end, sectionStart + section.getVisibleItemCount(mAdapter));
+
+            if (!section.isShowingPlaceholders()) {
+                Request request = obtainRequest();
+                request.set(section, position - sectionStart, position, sectionEnd - position);
+                mRequests.add(request);
+                section.onPrefetch(request.mPosition, request.mCount);
+            }
+            position = sectionEnd;
+        }
+    }
+
+    private Request obtainRequest() {
+        int size = mRecycledRequests.size();
+        return (size == 0) ? new Request() : mRecycledRequests.remove(size - 1);
+    }
+
+    /**
+     * A range of items in a single section that has been prefetched. Requests are reused once
+     * they've been fulfilled or cancelled.
+     */
+    private static final class Request {
+
+        private Section mSection;
+
+        /**
+         * The position of the first item in this request, relative to the start of its section
+         */
+        private int mPosition;
+
+        /**
+         * The adapter position of the first item in this request when it was sent
+         */
+        private int mAdapterStart;
+        private int mCount;
+
+        void set(Section section, int position, int adapterStart, int count) {
+            mSection = section;
+            mPosition = position;
+            mAdapterStart = adapterStart;
+            mCount = count;
+        }
+
+        /**
+         * @param adapterPosition An adapter position covered by this request
+         * @return The position of that item relative to the start of its section
+         */
+        int getPosition(int adapterPosition) {
+            return mPosition + adapterPosition - mAdapterStart;
+        }
+
+        /**
+         * Shrinks this request to a subset of its items
+         * @param from The first adapter position to keep
+         * @param to The adapter position after the last item to keep
+         */
+        void trim(int from, int to) {
+            mPosition = getPosition(from);
+            mAdapterStart = from;
+            mCount = to - from;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.marverenic.adapter;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.marverenic.adapter.HeterogeneousAdapter.ListSection;
+import com.marverenic.adapter.HeterogeneousAdapter.Section;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves the first items of a {@link HeterogeneousAdapter} to a file so that they can be shown
+ * immediately the next time the screen is created, before any data has been loaded.
+ *
+ * Only {@link ListSection ListSections} that override both
+ * {@link ListSection#getSnapshotKey()} and {@link ListSection#getSnapshotCodec()} are saved.
+ * Sections are matched by their snapshot key when restoring, so the order of sections may change
+ * between launches. Once live data is available, use
+ * {@link HeterogeneousAdapter#setSectionData(ListSection, List)} to replace the restored data
+ * so that only the items that actually changed are updated.
+ *
+ * Only the items that are on screen are saved. Items hidden by a filter or by collapsing a
+ * section are skipped, and the filter and collapsed state themselves aren't saved, so a restored
+ * section shows exactly the items that were visible when it was saved.
+ *
+ * A snapshot that can't be read (for example, because a codec changed its format) is deleted
+ * and ignored.
+ */
+public final class SectionSnapshot {
+
+    private static final String TAG = "SectionSnapshot";
+
+    private static final int MAGIC = 0x48415353;
+    private static final int FORMAT_VERSION = 1;
+
+    private final File mFile;
+    private final int mVersion;
+
+    /**
+     * @param file The file to store this snapshot in
+     * @param version A version number for the data written by the codecs in this snapshot.
+     *                Snapshots saved with a different version are ignored when restoring.
+     */
+    public SectionSnapshot(@NonNull File file, int version) {
+        mFile = file;
+        mVersion = version;
+    }
+
+    /**
+     * Encodes and decodes the items of a section in a snapshot
+     * @param <Type> The class of item that this codec handles
+     */
+    public interface Codec<Type> {
+
+        void write(@NonNull DataOutput out, Type item) throws IOException;
+
+        Type read(@NonNull DataInput in) throws IOException;
+    }
+
+    /**
+     * Serializes the first items of an adapter on the calling thread and writes them to disk on a
+     * background thread. This should be called when the screen is left, such as in
+     * {@code onStop()}.
+     * @param adapter The adapter to save
+     * @param itemLimit The maximum number of items to save across all sections. This should be
+     *                  about the number of items that fit on one screen.
+     */
+    public void save(@NonNull HeterogeneousAdapter adapter, int itemLimit) {
+        final byte[] snapshot;
+        try {
+            snapshot = serialize(adapter, itemLimit);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to serialize snapshot: " + e.getMessage());
+            return;
+        }
+
+        AdapterExecutors.getBackgroundExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                write(snapshot);
+            }
+        });
+    }
+
+    /**
+     * Reads the saved snapshot and replaces the data of every matching section in an adapter.
+     * This runs on the calling thread so that the first frame can include the restored data.
+     * Call this after all sections have been added.
+     * @param adapter The adapter to restore data into
+     * @return true if a snapshot was restored, false if there was no usable snapshot
+     */
+    public boolean restore(@NonNull HeterogeneousAdapter adapter) {
+        if (!mFile.exists()) {
+            return false;
+        }
+
+        try {
+            Map<String, byte[]> sections = read();
+            if (sections == null) {
+                return false;
+            }
+
+            List<Runnable> updates = new ArrayList<>();
+            for (int i = 0; i < adapter.getSectionCount(); i++) {
+                Section section = adapter.getSection(i);
+                if (section instanceof ListSection) {
+                    Runnable update = decode((ListSection<?>) section, sections);
+                    if (update != null) {
+                        updates.add(update);
+                    }
+                }
+            }
+
+            // Only modify sections once every section has been decoded successfully
+            for (Runnable update : updates) {
+                update.run();
+            }
+            adapter.notifyDataSetChanged();
+            return !updates.isEmpty();
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Discarding unreadable snapshot: " + e.getMessage());
+            clear();
+            return false;
+        }
+    }
+
+    /**
+     * Deletes the saved snapshot
+     */
+    public void clear() {
+        if (mFile.exists() && !mFile.delete()) {
+            Log.w(TAG, "Failed to delete " + mFile);
+        }
+    }
+
+    private byte[] serialize(HeterogeneousAdapter adapter, int itemLimit) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(mVersion);
+
+        int remaining = itemLimit;
+        for (int i = 0; i < adapter.getSectionCount() && remaining > 0; i++) {
+            Section section = adapter.getSection(i);
+            if (section instanceof ListSection) {
+                writeSection(adapter, (ListSection<?>) section, out, remaining);
+            }
+            // Sections that aren't saved still take up space on screen
+            remaining -= section.getVisibleItemCount(adapter);
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the items of a section that are currently on screen. Sections that are showing
+     * placeholders aren't written.
+     */
+    private static <Type> void writeSection(HeterogeneousAdapter adapter,
+                                            ListSection<Type> section, DataOutputStream out,
+                                            int itemLimit) throws IOException {
+        String key = section.getSnapshotKey();
+        Codec<Type> codec = section.getSnapshotCodec();
+        if (key == null || codec == null || section.isShowingPlaceholders()) {
+            return;
+        }
+
+        List<Type> data = section.getData();
+        int count = Math.min(section.getVisibleItemCount(adapter), itemLimit);
+
+        ByteArrayOutputStream sectionBytes = new ByteArrayOutputStream();
+        DataOutputStream sectionOut = new DataOutputStream(sectionBytes);
+        sectionOut.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            codec.write(sectionOut, data.get(section.getDataIndex(i)));
+        }
+        sectionOut.flush();
+
+        out.writeUTF(key);
+        out.writeInt(sectionBytes.size());
+        sectionBytes.writeTo(out);
+    }
+
+    private void write(byte[] snapshot) {
+        File temp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            out.write(snapshot);
+            out.getFD().sync();
+            out.close();
+            out = null;
+
+            if (!temp.renameTo(mFile)) {
+                Log.w(TAG, "Failed to replace " + mFile);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write snapshot: " + e.getMessage());
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                    // The write has already failed
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The encoded items of each section keyed by snapshot key, or {@code null} if the
+     *         snapshot was saved with a different version
+     */
+    private Map<String, byte[]> read() throws IOException {
+        long fileLength = mFile.length();
+        InputStream stream = new BufferedInputStream(new FileInputStream(mFile));
+        try {
+            DataInputStream in = new DataInputStream(stream);
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Unrecognized snapshot format");
+            }
+            if (in.readInt() != mVersion) {
+                return null;
+            }
+
+            Map<String, byte[]> sections = new HashMap<>();
+            while (in.available() > 0) {
+                String key = in.readUTF();
+                int length = in.readInt();
+                if (length < 0 || length > fileLength) {
+                    throw new IOException("Invalid section length " + length + " for " + key);
+                }
+
+                byte[] items = new byte[length];
+                in.readFully(items);
+                sections.put(key, items);
+            }
+            return sections;
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Decodes the saved items for a section without modifying it
+     * @return A Runnable that sets the section's data to the decoded items, or {@code null} if
+     *         this snapshot doesn't have any items for the section
+     */
+    private static <Type> Runnable decode(final ListSection<Type> section,
+                                          Map<String, byte[]> sections) throws IOException {
+        String key = section.getSnapshotKey();
+        Codec<Type> codec = section.getSnapshotCodec();
+        if (key == null || codec == null || !sections.containsKey(key)) {
+            return null;
+        }
+
+        byte[] bytes = sections.get(key);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid item count " + count + " for " + key);
+        }
+
+        // Codecs may write empty items, so the count is only used to size the list when it's
+        // plausible
+        final List<Type> items = new ArrayList<>(Math.min(count, bytes.length));
+        for (int i = 0; i < count; i++) {
+            items.add(codec.read(in));
+        }
+
+        return new Runnable() {
+            @Override
+            public void run() {
+                section.setData(items);
+            }
+        };
+    }
+}
@@ -0,0 +1,329 @@
+package com.marverenic.adapter;
+
+import java.util.Arrays;
+
+/**
+ * The selected items of a {@link HeterogeneousAdapter.Section}, stored as a sorted list of
+ * disjoint ranges of indices. Selecting or deselecting a range of any length costs time
+ * proportional to the number of ranges instead of the number of items, so selecting every item
+ * in a large section stores a single range.
+ *
+ * Indices refer to the section's data set rather than to the items that are currently shown.
+ * For a {@link HeterogeneousAdapter.ListSection}, these are indices in
+ * {@link HeterogeneousAdapter.ListSection#getData()}, so the selection is kept while the section
+ * is filtered. Indices are shifted as the adapter inserts, removes, and moves items, so the same
+ * items stay selected.
+ *
+ * Selections are modified through {@link HeterogeneousAdapter} so that the affected items can be
+ * updated. See {@link HeterogeneousAdapter#setSelected(HeterogeneousAdapter.Section, int,
+ * boolean)}.
+ */
+public final class SelectionSet {
+
+    private static final int[] EMPTY = new int[0];
+
+    /**
+     * Pairs of range bounds. The range at index {@code i} starts at {@code mBounds[2 * i]}
+     * (inclusive) and ends at {@code mBounds[2 * i + 1]} (exclusive). Ranges never overlap or
+     * touch, and are sorted by their start.
+     */
+    private int[] mBounds;
+    private int mRangeCount;
+    private int mSize;
+
+    SelectionSet() {
+        mBounds = EMPTY;
+    }
+
+    /**
+     * @param index The index of an item in this selection's section's data set
+     * @return true if the item at this index is selected
+     */
+    public boolean contains(int index) {
+        int range = findRange(index);
+        return range >= 0 && index < getRangeEnd(range);
+    }
+
+    /**
+     * @return The number of selected items
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return true if no items are selected
+     */
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * @return The number of disjoint ranges of selected items
+     */
+    public int getRangeCount() {
+        return mRangeCount;
+    }
+
+    /**
+     * @param range The index of a range, between 0 and {@link #getRangeCount()}
+     * @return The index of the first selected item in this range
+     */
+    public int getRangeStart(int range) {
+        return mBounds[2 * range];
+    }
+
+    /**
+     * @param range The index of a range, between 0 and {@link #getRangeCount()}
+     * @return The index after the last selected item in this range
+     */
+    public int getRangeEnd(int range) {
+        return mBounds[2 * range + 1];
+    }
+
+    /**
+     * @return The index of the last range that starts at or before an index, or -1 if every
+     *         range starts after it
+     */
+    private int findRange(int index) {
+        int low = 0;
+        int high = mRangeCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (getRangeStart(mid) <= index) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * Finds the items in a range whose selection state would change
+     * @param start The first index in the range
+     * @param end The index after the last item in the range
+     * @param selected Whether the range is being selected or deselected
+     * @return Pairs of start (inclusive) and end (exclusive) indices of the items that would
+     *         change, in ascending order
+     */
+    int[] getChanges(int start, int end, boolean selected) {
+        int[] changes = new int[8];
+        int count = 0;
+
+        int cursor = start;
+        int range = Math.max(0, findRange(start));
+        for (; range < mRangeCount && cursor < end; range++) {
+            int rangeStart = getRangeStart(range);
+            int rangeEnd = getRangeEnd(range);
+            if (rangeEnd <= cursor) {
+                continue;
+            }
+
+            int from;
+            int to;
+            if (selected) {
+                // Items between the cursor and the start of this range aren't selected yet
+                from = cursor;
+                to = Math.min(rangeStart, end);
+            } else {
+                from = Math.max(rangeStart, cursor);
+                to = Math.min(rangeEnd, end);
+            }
+
+            if (from < to) {
+                if (count + 2 > changes.length) {
+                    changes = Arrays.copyOf(changes, changes.length * 2);
+                }
+                changes[count++] = from;
+                changes[count++] = to;
+            }
+            cursor = rangeEnd;
+        }
+
+        if (selected && cursor < end) {
+            if (count + 2 > changes.length) {
+                changes = Arrays.copyOf(changes, changes.length + 2);
+            }
+            changes[count++] = cursor;
+            changes[count++] = end;
+        }
+
+        return Arrays.copyOf(changes, count);
+    }
+
+    /**
+     * Selects or deselects a range of items
+     * @param start The first index in the range
+     * @param end The index after the last item in the range
+     * @param selected Whether to select or deselect the range
+     */
+    void set(int start, int end, boolean selected) {
+        if (start >= end) {
+            return;
+        }
+
+        // Every range that overlaps or touches [start, end) is replaced
+        int first = 0;
+        while (first < mRangeCount && getRangeEnd(first) < start) {
+            first++;
+        }
+        int last = first;
+        while (last < mRangeCount && getRangeStart(last) <= end) {
+            last++;
+        }
+
+        int[] replacement = new int[4];
+        int replacementCount = 0;
+        int removedSize = 0;
+        for (int i = first; i < last; i++) {
+            removedSize += getRangeEnd(i) - getRangeStart(i);
+        }
+
+        if (selected) {
+            int mergedStart = start;
+            int mergedEnd = end;
+            if (first < last) {
+                mergedStart = Math.min(start, getRangeStart(first));
+                mergedEnd = Math.max(end, getRangeEnd(last - 1));
+            }
+            replacement[replacementCount++] = mergedStart;
+            replacement[replacementCount++] = mergedEnd;
+        } else if (first < last) {
+            // Keep whatever sticks out of either side of the deselected range
+            if (getRangeStart(first) < start) {
+                replacement[replacementCount++] = getRangeStart(first);
+                replacement[replacementCount++] = start;
+            }
+            if (getRangeEnd(last - 1) > end) {
+                replacement[replacementCount++] = end;
+                replacement[replacementCount++] = getRangeEnd(last - 1);
+            }
+        } else {
+            return;
+        }
+
+        int addedSize = 0;
+        for (int i = 0; i < replacementCount; i += 2) {
+            addedSize += replacement[i + 1] - replacement[i];
+        }
+
+        int newRangeCount = mRangeCount - (last - first) + replacementCount / 2;
+        int[] bounds = (2 * newRangeCount <= mBounds.length)
+                ? mBounds
+                : new int[Math.max(4, 4 * newRangeCount)];
+
+        int tail = 2 * (mRangeCount - last);
+        System.arraycopy(mBounds, 0, bounds, 0, 2 * first);
+        System.arraycopy(mBounds, 2 * last, bounds, 2 * first + replacementCount, tail);
+        System.arraycopy(replacement, 0, bounds, 2 * first, replacementCount);
+
+        mBounds = bounds;
+        mRangeCount = newRangeCount;
+        mSize += addedSize - removedSize;
+    }
+
+    /**
+     * Shifts the selection after items were inserted. Inserted items aren't selected.
+     * @param index The index of the first inserted item
+     * @param count The number of items that were inserted
+     */
+    void insert(int index, int count) {
+        if (count <= 0 || mRangeCount == 0) {
+            return;
+        }
+
+        int[] bounds = new int[2 * (mRangeCount + 1)];
+        int boundCount = 0;
+        for (int i = 0; i < mRangeCount; i++) {
+            int start = getRangeStart(i);
+            int end = getRangeEnd(i);
+            if (end <= index) {
+                bounds[boundCount++] = start;
+                bounds[boundCount++] = end;
+            } else if (start >= index) {
+                bounds[boundCount++] = start + count;
+                bounds[boundCount++] = end + count;
+            } else {
+                // The inserted items split this range in two
+                bounds[boundCount++] = start;
+                bounds[boundCount++] = index;
+                bounds[boundCount++] = index + count;
+                bounds[boundCount++] = end + count;
+            }
+        }
+
+        mBounds = bounds;
+        mRangeCount = boundCount / 2;
+    }
+
+    /**
+     * Shifts the selection after items were removed, and forgets whether the removed items were
+     * selected
+     * @param index The index of the first removed item
+     * @param count The number of items that were removed
+     */
+    void remove(int index, int count) {
+        if (count <= 0 || mRangeCount == 0) {
+            return;
+        }
+
+        int[] bounds = new int[2 * mRangeCount];
+        int boundCount = 0;
+        int size = 0;
+        for (int i = 0; i < mRangeCount; i++) {
+            int start = shiftForRemoval(getRangeStart(i), index, count);
+            int end = shiftForRemoval(getRangeEnd(i), index, count);
+            if (start == end) {
+                continue;
+            }
+
+            if (boundCount > 0 && bounds[boundCount - 1] == start) {
+                // The removed items separated this range from the previous one
+                bounds[boundCount - 1] = end;
+            } else {
+                bounds[boundCount++] = start;
+                bounds[boundCount++] = end;
+            }
+            size += end - start;
+        }
+
+        mBounds = bounds;
+        mRangeCount = boundCount / 2;
+        mSize = size;
+    }
+
+    private static int shiftForRemoval(int bound, int index, int count) {
+        if (bound <= index) {
+            return bound;
+        }
+        return Math.max(index, bound - count);
+    }
+
+    /**
+     * Updates the selection after a single item was moved, keeping the item's selection state
+     * @param from The old index of the item
+     * @param to The new index of the item
+     */
+    void move(int from, int to) {
+        if (from == to || mRangeCount == 0) {
+            return;
+        }
+
+        boolean selected = contains(from);
+        remove(from, 1);
+        insert(to, 1);
+        if (selected) {
+            set(to, to + 1, true);
+        }
+    }
+
+    /**
+     * Deselects every item
+     */
+    void clear() {
+        mBounds = EMPTY;
+        mRangeCount = 0;
+        mSize = 0;
+    }
+}
@@ -0,0 +1,352 @@
+package com.marverenic.adapter;
+
+import android.support.annotation.NonNull;
+import android.support.v7.util.SortedList;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A {@link HeterogeneousAdapter.Section} that keeps its items sorted with
+ * {@link #compare(Object, Object)}. Items are inserted, updated, and removed individually using a
+ * binary search, and only the items that were inserted, moved, changed, or removed are notified.
+ * This avoids sorting and rebinding an entire list when a single item changes, such as when a
+ * message arrives in a chat or a score changes in a leaderboard.
+ *
+ * Batching is opt-in. Each call to {@link #add(Object)}, {@link #update(Object, Object)},
+ * {@link #remove(Object)} or {@link #clear()} is notified as soon as it returns, so callers that
+ * make several changes at once should wrap them in {@link #beginBatchedUpdates()} and
+ * {@link #endBatchedUpdates()}. A batch is notified as a single set of notifications, and
+ * adjacent changes of the same kind are merged into range notifications. Changes aren't
+ * coalesced across calls automatically, since that would delay notifications past the point
+ * where the section's data has already changed. Callers that receive changes faster than the
+ * screen refreshes should queue them and apply each frame's changes in a single batch.
+ *
+ * Changes are only notified while this section's adapter is attached to a
+ * {@link android.support.v7.widget.RecyclerView}. Call
+ * {@link android.support.v7.widget.RecyclerView.Adapter#notifyDataSetChanged()} after changing
+ * this section while its adapter is detached. While the adapter is showing placeholders for this
+ * section, changes aren't notified because the placeholders stay in place. Call
+ * {@link HeterogeneousAdapter#clearPlaceholders(HeterogeneousAdapter.Section)} to replace them
+ * with the items once they've been added.
+ *
+ * Selections made with {@link HeterogeneousAdapter#setSelected(HeterogeneousAdapter.Section, int,
+ * boolean)} stay on the same items as items are inserted, moved and removed.
+ *
+ * @param <Type> The class of the data that this Section shows.
+ */
+public abstract class SortedSection<Type> extends HeterogeneousAdapter.Section<Type> {
+
+    private static final int INSERTED = 0;
+    private static final int REMOVED = 1;
+    private static final int MOVED = 2;
+    private static final int CHANGED = 3;
+
+    private final SortedList<Type> mData;
+
+    private HeterogeneousAdapter mAdapter;
+
+    /**
+     * The number of unmatched calls to {@link #beginBatchedUpdates()}
+     */
+    private int mBatchDepth;
+
+    /**
+     * Changes recorded since the outermost batch began, as triples of the type of change and
+     * its two arguments
+     */
+    private final List<int[]> mPendingChanges;
+
+    /**
+     * The adapter that this section was attached to, the adapter position of this section's
+     * first item, and the size of the adapter when the outermost batch began
+     */
+    private HeterogeneousAdapter mBatchAdapter;
+    private int mBatchOffset;
+    private int mBatchOldVisibleCount;
+    private int mBatchOldTotal;
+    private boolean mBatchGranular;
+    private boolean mBatchPlaceholders;
+
+    /**
+     * @param itemClass The class of this section's items
+     */
+    public SortedSection(@NonNull Class<Type> itemClass) {
+        mData = new SortedList<>(itemClass, new Callback());
+        mPendingChanges = new ArrayList<>();
+    }
+
+    /**
+     * Compares two items to decide their order in this section
+     * @return A negative number if {@code first} comes before {@code second}, a positive number
+     *         if it comes after, or zero if they are in the same place
+     * @see java.util.Comparator#compare(Object, Object)
+     */
+    protected abstract int compare(Type first, Type second);
+
+    /**
+     * Checks whether two objects represent the same item. Override this method if items are
+     * replaced with new instances when they change. The default implementation uses
+     * {@link Object#equals(Object)}.
+     * @return true if both objects represent the same item
+     */
+    protected boolean areItemsTheSame(Type oldItem, Type newItem) {
+        return (oldItem == null) ? newItem == null : oldItem.equals(newItem);
+    }
+
+    /**
+     * Checks whether an item needs to be rebound after it is updated. The default
+     * implementation uses {@link Object#equals(Object)}.
+     * @return true if both items will be shown the same way
+     */
+    protected boolean areContentsTheSame(Type oldItem, Type newItem) {
+        return (oldItem == null) ? newItem == null : oldItem.equals(newItem);
+    }
+
+    @Override
+    protected void onAttached(HeterogeneousAdapter adapter) {
+        super.onAttached(adapter);
+        mAdapter = adapter;
+    }
+
+    @Override
+    protected void onDetached(HeterogeneousAdapter adapter) {
+        super.onDetached(adapter);
+        mAdapter = null;
+    }
+
+    @Override
+    public int getItemCount(HeterogeneousAdapter adapter) {
+        return showSection(adapter) ? mData.size() : 0;
+    }
+
+    @Override
+    public Type get(int position) {
+        return mData.get(position);
+    }
+
+    /**
+     * @return The number of items in this section, including any that are hidden
+     */
+    public int size() {
+        return mData.size();
+    }
+
+    /**
+     * Finds an item with a binary search
+     * @param item The item to find
+     * @return The position of the item in this section, or -1 if it isn't in this section
+     */
+    public int indexOf(Type item) {
+        return mData.indexOf(item);
+    }
+
+    /**
+     * Inserts an item in sorted order. If this section already has an item in the same place
+     * that {@link #areItemsTheSame(Object, Object)} matches, that item is replaced instead.
+     * @param item The item to add
+     * @return The position of the item in this section
+     */
+    public int add(Type item) {
+        beginBatchedUpdates();
+        try {
+            return mData.add(item);
+        } finally {
+            endBatchedUpdates();
+        }
+    }
+
+    /**
+     * Inserts several items in sorted order
+     * @param items The items to add
+     * @see #add(Object)
+     */
+    public void addAll(@NonNull Collection<Type> items) {
+        beginBatchedUpdates();
+        try {
+            mData.addAll(items);
+        } finally {
+            endBatchedUpdates();
+        }
+    }
+
+    /**
+     * Replaces an item, moving it if its new value sorts differently
+     * @param oldItem The current value of the item, which is used to find it
+     * @param newItem The new value of the item
+     * @return false if {@code oldItem} isn't in this section
+     */
+    public boolean update(Type oldItem, Type newItem) {
+        int index = mData.indexOf(oldItem);
+        if (index == SortedList.INVALID_POSITION) {
+            return false;
+        }
+
+        beginBatchedUpdates();
+        try {
+            mData.updateItemAt(index, newItem);
+        } finally {
+            endBatchedUpdates();
+        }
+        return true;
+    }
+
+    /**
+     * Removes an item
+     * @param item The item to remove
+     * @return false if the item isn't in this section
+     */
+    public boolean remove(Type item) {
+        beginBatchedUpdates();
+        try {
+            return mData.remove(item);
+        } finally {
+            endBatchedUpdates();
+        }
+    }
+
+    /**
+     * Removes every item
+     */
+    public void clear() {
+        beginBatchedUpdates();
+        try {
+            mData.clear();
+        } finally {
+            endBatchedUpdates();
+        }
+    }
+
+    /**
+     * Starts combining changes to this section. Notifications are sent when the matching call to
+     * {@link #endBatchedUpdates()} is made. Calls may be nested. Changes made outside of a batch
+     * are each notified immediately.
+     */
+    public void beginBatchedUpdates() {
+        if (mBatchDepth++ > 0) {
+            return;
+        }
+
+        mPendingChanges.clear();
+        mBatchAdapter = mAdapter;
+        if (mAdapter != null) {
+            // Read the adapter's offsets before this section changes so that they're up to date
+            mBatchOldTotal = mAdapter.getDataSize();
+            mBatchOffset = mAdapter.getLeadingViewCount(getTypeId());
+            mBatchOldVisibleCount = getVisibleItemCount(mAdapter);
+            mBatchGranular = isFullyVisible();
+            mBatchPlaceholders = isShowingPlaceholders();
+        }
+        mData.beginBatchedUpdates();
+    }
+
+    /**
+     * Sends notifications for every change made since the matching call to
+     * {@link #beginBatchedUpdates()}
+     */
+    public void endBatchedUpdates() {
+        if (--mBatchDepth > 0) {
+            return;
+        }
+
+        mData.endBatchedUpdates();
+        if (mAdapter == null || mAdapter != mBatchAdapter || mPendingChanges.isEmpty()) {
+            mPendingChanges.clear();
+            mBatchAdapter = null;
+            return;
+        }
+        mBatchAdapter = null;
+
+        if (mBatchPlaceholders) {
+            // The placeholders are still shown, or clearPlaceholders() has already notified the
+            // adapter about the items that replaced them
+            mPendingChanges.clear();
+            return;
+        }
+
+        int newVisibleCount = getVisibleItemCount(mAdapter);
+        int newTotal = mBatchOldTotal - mBatchOldVisibleCount + newVisibleCount;
+        if (!mBatchGranular || !isFullyVisible() || mBatchOldTotal == 0 || newTotal == 0) {
+            // Only part of this section is shown, or the empty state may need to change
+            mPendingChanges.clear();
+            mAdapter.notifyDataSetChanged();
+            return;
+        }
+
+        int offset = mBatchOffset;
+        for (int[] change : mPendingChanges) {
+            switch (change[0]) {
+                case INSERTED:
+                    mAdapter.notifyItemRangeInserted(offset + change[1], change[2]);
+                    break;
+                case REMOVED:
+                    mAdapter.notifyItemRangeRemoved(offset + change[1], change[2]);
+                    break;
+                case MOVED:
+                    mAdapter.notifyItemMoved(offset + change[1], offset + change[2]);
+                    break;
+                case CHANGED:
+                    mAdapter.notifyItemRangeChanged(offset + change[1], change[2]);
+                    break;
+            }
+        }
+        mPendingChanges.clear();
+    }
+
+    /**
+     * @return true if every item in this section is shown in the adapter
+     */
+    private boolean isFullyVisible() {
+        return showSection(mAdapter) && !isShowingPlaceholders()
+                && getVisibleItemCount(mAdapter) == mData.size();
+    }
+
+    /**
+     * Records changes reported by {@link #mData} until the outermost batch ends
+     */
+    private class Callback extends SortedList.Callback<Type> {
+
+        private void record(int type, int first, int second) {
+            mPendingChanges.add(new int[] {type, first, second});
+        }
+
+        @Override
+        public int compare(Type first, Type second) {
+            return SortedSection.this.compare(first, second);
+        }
+
+        @Override
+        public boolean areItemsTheSame(Type oldItem, Type newItem) {
+            return SortedSection.this.areItemsTheSame(oldItem, newItem);
+        }
+
+        @Override
+        public boolean areContentsTheSame(Type oldItem, Type newItem) {
+            return SortedSection.this.areContentsTheSame(oldItem, newItem);
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            record(INSERTED, position, count);
+            remapSelectionForInsertion(position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            record(REMOVED, position, count);
+            remapSelectionForRemoval(position, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            record(MOVED, fromPosition, toPosition);
+            remapSelectionForMove(fromPosition, toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count) {
+            record(CHANGED, position, count);
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package com.marverenic.adapter;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An extension of {@link HeterogeneousAdapter.ListSection} that is populated by a push-based
+ * {@link Source}. The section subscribes to its source when it is shown in a
+ * {@link android.support.v7.widget.RecyclerView} and unsubscribes when it is removed from its
+ * adapter or its adapter is detached.
+ *
+ * Every emission is diffed against the data currently shown on a background thread using
+ * {@link #areItemsTheSame(Object, Object)} and {@link #areContentsTheSame(Object, Object)}, and
+ * only the items that changed are notified. If the source emits faster than diffs can be applied,
+ * intermediate emissions are dropped and only the most recent data is diffed. Diffs run on their
+ * own thread, so a busy stream doesn't hold up {@link HeterogeneousAdapter#filter(CharSequence)}.
+ *
+ * If the adapter is filtered, new emissions are filtered with the same query before they're shown,
+ * using {@link #onFilter(Object, CharSequence)} on the background thread.
+ *
+ * Lists passed to {@link Emitter#onNext(List)} become this section's backing data set, and must
+ * not be modified afterwards.
+ *
+ * @param <Type> The class of the data that this Section shows.
+ */
+public abstract class StreamSection<Type> extends HeterogeneousAdapter.ListSection<Type> {
+
+    private final Source<Type> mSource;
+    private final Handler mHandler;
+    private final Object mLock;
+
+    private HeterogeneousAdapter mAdapter;
+    private Emitter<Type> mEmitter;
+    private Subscription mSubscription;
+
+    /**
+     * The most recently emitted data. Guarded by {@link #mLock}.
+     */
+    private List<Type> mLatest;
+
+    /**
+     * Incremented with every emission. Guarded by {@link #mLock}.
+     */
+    private int mLatestVersion;
+
+    /**
+     * The version of {@link #mLatest} that is currently shown
+     */
+    private int mShownVersion;
+    private boolean mDiffing;
+
+    /**
+     * @param source The source that will populate this section
+     */
+    public StreamSection(@NonNull Source<Type> source) {
+        this(source, Collections.<Type>emptyList());
+    }
+
+    /**
+     * @param source The source that will populate this section
+     * @param initialData The data to show before the source emits anything
+     */
+    public StreamSection(@NonNull Source<Type> source, @NonNull List<Type> initialData) {
+        super(initialData);
+        mSource = source;
+        mHandler = new Handler(Looper.getMainLooper());
+        mLock = new Object();
+        mLatest = initialData;
+    }
+
+    @Override
+    protected void onAttached(HeterogeneousAdapter adapter) {
+        super.onAttached(adapter);
+        mAdapter = adapter;
+        mEmitter = new Emitter<>(this);
+        mSubscription = mSource.subscribe(mEmitter);
+    }
+
+    @Override
+    protected void onDetached(HeterogeneousAdapter adapter) {
+        super.onDetached(adapter);
+        if (mEmitter != null) {
+            mEmitter.mActive = false;
+            mEmitter = null;
+        }
+
+        if (mSubscription != null) {
+            mSubscription.unsubscribe();
+            mSubscription = null;
+        }
+        mAdapter = null;
+    }
+
+    /**
+     * @return true if this section is currently subscribed to its source
+     */
+    public boolean isSubscribed() {
+        return mEmitter != null;
+    }
+
+    private void onEmission() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                diffLatest();
+            }
+        });
+    }
+
+    /**
+     * Starts diffing the most recent emission if it isn't already shown. Only one diff runs at a
+     * time; any emissions that arrive in the meantime are picked up when it finishes.
+     */
+    private void diffLatest() {
+        if (mDiffing || mAdapter == null) {
+            return;
+        }
+
+        final List<Type> target;
+        final int version;
+        synchronized (mLock) {
+            target = mLatest;
+            version = mLatestVersion;
+        }
+
+        if (version == mShownVersion) {
+            return;
+        }
+
+        mDiffing = true;
+        final List<Type> base = getData();
+        final int[] baseIndices = getFilteredIndices();
+        final CharSequence query = mAdapter.getFilterQuery();
+
+        AdapterExecutors.getStreamExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult result = DiffUtil.calculateDiff(
+                        new DiffCallback<>(StreamSection.this, base, target));
+
+                // While filtered, the selection is remapped against the whole data set but the
+                // adapter is only notified about the items that pass the filter
+                final int[] indices = (query == null) ? null : findMatches(target, query);
+                final DiffUtil.DiffResult visibleResult;
+                if (baseIndices == null && indices == null) {
+                    visibleResult = result;
+                } else {
+                    visibleResult = DiffUtil.calculateDiff(new DiffCallback<>(StreamSection.this,
+                            select(base, baseIndices), select(target, indices)));
+                }
+
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mDiffing = false;
+                        if (mAdapter != null && getData() == base
+                                && getFilteredIndices() == baseIndices
+                                && isSameQuery(query, mAdapter.getFilterQuery())) {
+                            apply(target, query, indices, result, visibleResult);
+                            mShownVersion = version;
+                        }
+                        diffLatest();
+                    }
+                });
+            }
+        });
+    }
+
+    private static boolean isSameQuery(CharSequence query, CharSequence other) {
+        return (query == null) ? other == null : other != null && query.equals(other);
+    }
+
+    private void apply(List<Type> data, CharSequence query, int[] indices,
+                       DiffUtil.DiffResult result, DiffUtil.DiffResult visibleResult) {
+        final HeterogeneousAdapter adapter = mAdapter;
+        int[] oldIndices = getFilteredIndices();
+        int oldSize = (oldIndices == null) ? getData().size() : oldIndices.length;
+        int oldVisible = getVisibleItemCount(adapter);
+        int oldTotal = adapter.getDataSize();
+        final int offset = adapter.getLeadingViewCount(getTypeId());
+
+        // The new data was already filtered on the stream thread
+        setFilter(null, null);
+        setData(data);
+        setFilter(query, indices);
+        if (hasSelection()) {
+            result.dispatchUpdatesTo(getSelectionRemapper());
+        }
+        int newSize = (indices == null) ? data.size() : indices.length;
+        int newVisible = getVisibleItemCount(adapter);
+
+        if (oldVisible == 0 && newVisible == 0) {
+            return;
+        }
+
+        boolean granular = oldVisible == oldSize && newVisible == newSize
+                && oldTotal != 0 && oldTotal - oldVisible + newVisible != 0;
+
+        if (!granular) {
+            adapter.notifyDataSetChanged();
+            return;
+        }
+
+        visibleResult.dispatchUpdatesTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                adapter.notifyItemRangeInserted(offset + position, count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                adapter.notifyItemRangeRemoved(offset + position, count);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                adapter.notifyItemMoved(offset + fromPosition, offset + toPosition);
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                adapter.notifyItemRangeChanged(offset + position, count, payload);
+            }
+        });
+    }
+
+    /**
+     * A push-based source of data for a {@link StreamSection}. This interface can be implemented
+     * on top of any observable type, such as an RxJava Observable or a LiveData.
+     * @param <Type> The class of data emitted by this source
+     */
+    public interface Source<Type> {
+
+        /**
+         * Starts emitting data to a StreamSection
+         * @param emitter The emitter to send new data to. It may be called from any thread.
+         * @return A Subscription that will be cancelled when the section no longer needs data
+         */
+        Subscription subscribe(@NonNull Emitter<Type> emitter);
+    }
+
+    /**
+     * A handle used to stop a {@link Source} from emitting data
+     */
+    public interface Subscription {
+
+        /**
+         * Stops emitting data. The emitter that was passed to
+         * {@link Source#subscribe(Emitter)} ignores any emissions after this method is called.
+         */
+        void unsubscribe();
+    }
+
+    /**
+     * An incremental change to the data in a {@link StreamSection}
+     * @param <Type> The class of data in the section
+     */
+    public interface Delta<Type> {
+
+        /**
+         * Applies this change. Called on the thread that emitted it.
+         * @param current The most recently emitted data. This list must not be modified.
+         * @return A new list with this change applied
+         */
+        List<Type> apply(@NonNull List<Type> current);
+    }
+
+    /**
+     * Receives data from a {@link Source} on behalf of a {@link StreamSection}. Methods in this
+     * class may be called from any thread.
+     * @param <Type> The class of data in the section
+     */
+    public static final class Emitter<Type> {
+
+        private final StreamSection<Type> mSection;
+        private volatile boolean mActive;
+
+        private Emitter(StreamSection<Type> section) {
+            mSection = section;
+            mActive = true;
+        }
+
+        /**
+         * Replaces the data in the section
+         * @param data The new data to show. This list must not be modified afterwards.
+         */
+        public void onNext(@NonNull List<Type> data) {
+            if (!mActive) {
+                return;
+            }
+
+            synchronized (mSection.mLock) {
+                mSection.mLatest = data;
+                mSection.mLatestVersion++;
+            }
+            mSection.onEmission();
+        }
+
+        /**
+         * Applies a change to the most recently emitted data
+         * @param delta The change to apply
+         */
+        public void onDelta(@NonNull Delta<Type> delta) {
+            if (!mActive) {
+                return;
+            }
+
+            synchronized (mSection.mLock) {
+                mSection.mLatest = delta.apply(mSection.mLatest);
+                mSection.mLatestVersion++;
+            }
+            mSection.onEmission();
+        }
+
+        /**
+         * @return false if the section has unsubscribed and will ignore new data
+         */
+        public boolean isActive() {
+            return mActive;
+        }
+    }
+
+    private static final class DiffCallback<Type> extends DiffUtil.Callback {
+
+        private final StreamSection<Type> mSection;
+        private final List<Type> mOld;
+        private final List<Type> mNew;
+
+        DiffCallback(StreamSection<Type> section, List<Type> oldData, List<Type> newData) {
+            mSection = section;
+            mOld = oldData;
+            mNew = newData;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOld.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNew.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mSection.areItemsTheSame(mOld.get(oldItemPosition), mNew.get(newItemPosition));
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mSection.areContentsTheSame(
+                    mOld.get(oldItemPosition), mNew.get(newItemPosition));
+        }
+    }
+}
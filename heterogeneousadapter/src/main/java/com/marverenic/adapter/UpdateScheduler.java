@@ -0,0 +1,526 @@
+package com.marverenic.adapter;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.Choreographer;
+
+import com.marverenic.adapter.HeterogeneousAdapter.ListSection;
+import com.marverenic.adapter.HeterogeneousAdapter.Section;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Queues changes to the sections of a {@link HeterogeneousAdapter} and applies them at most once
+ * per frame. This is useful for data sources that update faster than the screen can refresh.
+ *
+ * Changes are described relative to the section they happen in, using indices in the section's
+ * data set rather than adapter positions. For a {@link ListSection}, these are indices in
+ * {@link ListSection#getData()}, whether or not the section is currently collapsed or hidden.
+ * Filtered sections can't be updated through an UpdateScheduler, because their filter would no
+ * longer match the data once it changes. Each change may include a
+ * {@link Runnable} that modifies the section's data set. These Runnables are held until the next
+ * frame, so the adapter never reports data that RecyclerView hasn't been notified about. When the
+ * queue is flushed, overlapping changes are merged, and items that were inserted and removed
+ * before the frame are never shown at all.
+ *
+ * An UpdateScheduler is obtained with {@link HeterogeneousAdapter#getUpdateScheduler()}. All
+ * methods must be called on the main thread.
+ */
+public final class UpdateScheduler {
+
+    /**
+     * Frame time used on platforms without {@link Choreographer}
+     */
+    private static final long FALLBACK_FRAME_DELAY_MS = 16;
+
+    private static final int OP_REMOVE = 0;
+    private static final int OP_INSERT = 1;
+
+    private final HeterogeneousAdapter mAdapter;
+    private final List<PendingSection> mPending;
+    private final List<Runnable> mMutations;
+
+    private boolean mScheduled;
+    private Handler mHandler;
+    private Runnable mFallbackCallback;
+
+    /**
+     * A {@link Choreographer.FrameCallback}. This is stored as an Object so that this class can
+     * still be loaded on platforms that don't have Choreographer.
+     */
+    private Object mFrameCallback;
+
+    UpdateScheduler(HeterogeneousAdapter adapter) {
+        mAdapter = adapter;
+        mPending = new ArrayList<>();
+        mMutations = new ArrayList<>();
+    }
+
+    /**
+     * Schedules an insertion
+     * @param section The section that items will be inserted into
+     * @param positionStart The index in the section's data set of the first inserted item
+     * @param itemCount The number of items being inserted
+     * @param mutation Adds the items to the section's data set, or {@code null} if the data set
+     *                 is modified some other way before the next frame
+     * @throws IllegalStateException If the section is a filtered {@link ListSection}
+     */
+    public void scheduleItemRangeInserted(@NonNull final Section<?> section,
+                                          final int positionStart, final int itemCount,
+                                          @Nullable Runnable mutation) {
+        getPendingSection(section).insert(positionStart, itemCount);
+        enqueue(mutation);
+        enqueue(new Runnable() {
+            @Override
+            public void run() {
+                section.remapSelectionForInsertion(positionStart, itemCount);
+            }
+        });
+    }
+
+    /**
+     * Schedules a removal
+     * @param section The section that items will be removed from
+     * @param positionStart The index in the section's data set of the first removed item
+     * @param itemCount The number of items being removed
+     * @param mutation Removes the items from the section's data set, or {@code null} if the data
+     *                 set is modified some other way before the next frame
+     * @throws IllegalStateException If the section is a filtered {@link ListSection}
+     */
+    public void scheduleItemRangeRemoved(@NonNull final Section<?> section,
+                                         final int positionStart, final int itemCount,
+                                         @Nullable Runnable mutation) {
+        getPendingSection(section).remove(positionStart, itemCount);
+        enqueue(mutation);
+        enqueue(new Runnable() {
+            @Override
+            public void run() {
+                section.remapSelectionForRemoval(positionStart, itemCount);
+            }
+        });
+    }
+
+    /**
+     * Schedules a change to existing items
+     * @param section The section that holds the items being changed
+     * @param positionStart The index in the section's data set of the first changed item
+     * @param itemCount The number of items being changed
+     * @param mutation Updates the items in the section's data set, or {@code null} if the data
+     *                 set is modified some other way before the next frame
+     * @throws IllegalStateException If the section is a filtered {@link ListSection}
+     */
+    public void scheduleItemRangeChanged(@NonNull Section<?> section, int positionStart,
+                                         int itemCount, @Nullable Runnable mutation) {
+        getPendingSection(section).change(positionStart, itemCount);
+        enqueue(mutation);
+    }
+
+    /**
+     * Inserts an item into a {@link ListSection} on the next frame
+     * @param section The section to add the item to
+     * @param position The index in {@link ListSection#getData()} to add the item at
+     * @param item The item to add
+     * @throws IllegalStateException If the section is filtered
+     */
+    public <Type> void add(@NonNull final ListSection<Type> section, final int position,
+                           final Type item) {
+        scheduleItemRangeInserted(section, position, 1, new Runnable() {
+            @Override
+            public void run() {
+                section.getData().add(position, item);
+            }
+        });
+    }
+
+    /**
+     * Removes an item from a {@link ListSection} on the next frame
+     * @param section The section to remove the item from
+     * @param position The index in {@link ListSection#getData()} of the item to remove
+     * @throws IllegalStateException If the section is filtered
+     */
+    public void remove(@NonNull final ListSection<?> section, final int position) {
+        scheduleItemRangeRemoved(section, position, 1, new Runnable() {
+            @Override
+            public void run() {
+                section.getData().remove(position);
+            }
+        });
+    }
+
+    /**
+     * Replaces an item in a {@link ListSection} on the next frame
+     * @param section The section to update
+     * @param position The index in {@link ListSection#getData()} of the item to replace
+     * @param item The new item
+     * @throws IllegalStateException If the section is filtered
+     */
+    public <Type> void set(@NonNull final ListSection<Type> section, final int position,
+                           final Type item) {
+        scheduleItemRangeChanged(section, position, 1, new Runnable() {
+            @Override
+            public void run() {
+                section.getData().set(position, item);
+            }
+        });
+    }
+
+    /**
+     * Immediately applies every queued change instead of waiting for the next frame
+     */
+    public void flush() {
+        cancelFrame();
+        if (mPending.isEmpty() && mMutations.isEmpty()) {
+            return;
+        }
+
+        // Positions are resolved before any data is modified, because RecyclerView still
+        // describes the old state of the adapter until it has been notified
+        int count = mPending.size();
+        int[] sectionIndices = new int[count];
+        int[] offsets = new int[count];
+        int[] oldVisible = new int[count];
+        int[] oldSizes = new int[count];
+        int[] newVisible = new int[count];
+        for (int i = 0; i < count; i++) {
+            Section section = mPending.get(i).mSection;
+            sectionIndices[i] = mAdapter.getSectionIndex(section);
+            offsets[i] = mAdapter.getLeadingViewCount(section.getTypeId());
+            oldVisible[i] = section.getVisibleItemCount(mAdapter);
+            oldSizes[i] = getDataSize(section);
+        }
+        int oldTotal = mAdapter.getDataSize();
+
+        // A filter may have been applied since these changes were scheduled. Its results are
+        // about to go stale, so it's removed here and run again once the data has changed.
+        CharSequence refilter = null;
+        for (PendingSection pending : mPending) {
+            if (pending.mSection instanceof ListSection) {
+                ListSection<?> section = (ListSection<?>) pending.mSection;
+                if (section.getFilteredIndices() != null) {
+                    refilter = section.getFilterQuery();
+                    section.setFilter(null, null);
+                }
+            }
+        }
+
+        for (Runnable mutation : mMutations) {
+            mutation.run();
+        }
+        mMutations.clear();
+
+        boolean granular = oldTotal != 0 && refilter == null;
+        int newTotal = oldTotal;
+        for (int i = 0; i < count && granular; i++) {
+            PendingSection pending = mPending.get(i);
+            if (sectionIndices[i] == -1) {
+                continue;
+            }
+
+            newVisible[i] = pending.mSection.getVisibleItemCount(mAdapter);
+            int newSize = getDataSize(pending.mSection);
+            if (oldVisible[i] != 0 || newVisible[i] != 0) {
+                granular = oldVisible[i] == oldSizes[i] && newVisible[i] == newSize
+                        && oldSizes[i] == pending.mOldSize && newSize == pending.getNewSize();
+            }
+            newTotal += newVisible[i] - oldVisible[i];
+        }
+
+        if (!granular || newTotal == 0) {
+            mPending.clear();
+            mAdapter.notifyDataSetChanged();
+            if (refilter != null) {
+                mAdapter.filter(refilter);
+            }
+            return;
+        }
+
+        // Dispatch from the bottom section up so that the offsets of earlier sections stay valid
+        for (int remaining = count; remaining > 0; remaining--) {
+            int bottom = -1;
+            for (int i = 0; i < count; i++) {
+                if (sectionIndices[i] != -1
+                        && (bottom == -1 || sectionIndices[i] > sectionIndices[bottom])) {
+                    bottom = i;
+                }
+            }
+            if (bottom == -1) {
+                break;
+            }
+
+            if (oldVisible[bottom] != 0 || newVisible[bottom] != 0) {
+                mPending.get(bottom).dispatch(mAdapter, offsets[bottom]);
+            }
+            sectionIndices[bottom] = -1;
+        }
+        mPending.clear();
+    }
+
+    private PendingSection getPendingSection(Section<?> section) {
+        if (section instanceof ListSection
+                && ((ListSection<?>) section).getFilteredIndices() != null) {
+            throw new IllegalStateException("Updates can't be scheduled for a filtered section. "
+                    + "Call clearFilter() first, or modify the data with setSectionData()");
+        }
+
+        for (PendingSection pending : mPending) {
+            if (pending.mSection == section) {
+                return pending;
+            }
+        }
+
+        PendingSection pending = new PendingSection(section, getDataSize(section));
+        mPending.add(pending);
+        return pending;
+    }
+
+    /**
+     * Gets the number of items in a section's data set. Unlike
+     * {@link Section#getItemCount(HeterogeneousAdapter)}, this includes the items of a
+     * {@link ListSection} that is currently hidden.
+     */
+    private int getDataSize(Section<?> section) {
+        if (section instanceof ListSection) {
+            return ((ListSection<?>) section).getData().size();
+        }
+        return section.getItemCount(mAdapter);
+    }
+
+    private void enqueue(@Nullable Runnable mutation) {
+        if (mutation != null) {
+            mMutations.add(mutation);
+        }
+        scheduleFrame();
+    }
+
+    private void scheduleFrame() {
+        if (mScheduled) {
+            return;
+        }
+        mScheduled = true;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            postFrameCallback();
+        } else {
+            if (mHandler == null) {
+                mHandler = new Handler(Looper.getMainLooper());
+                mFallbackCallback = new Runnable() {
+                    @Override
+                    public void run() {
+                        mScheduled = false;
+                        flush();
+                    }
+                };
+            }
+            mHandler.postDelayed(mFallbackCallback, FALLBACK_FRAME_DELAY_MS);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void postFrameCallback() {
+        if (mFrameCallback == null) {
+            mFrameCallback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    mScheduled = false;
+                    flush();
+                }
+            };
+        }
+        Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) mFrameCallback);
+    }
+
+    private void cancelFrame() {
+        if (!mScheduled) {
+            return;
+        }
+        mScheduled = false;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            removeFrameCallback();
+        } else {
+            mHandler.removeCallbacks(mFallbackCallback);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void removeFrameCallback() {
+        Choreographer.getInstance()
+                .removeFrameCallback((Choreographer.FrameCallback) mFrameCallback);
+    }
+
+    /**
+     * Tracks the net effect of every change queued for a single section. The section's contents
+     * are described as a list of segments, each of which is either a run of items that existed
+     * before the first change, or a run of items that were inserted since then. Removing an
+     * inserted segment simply drops it, which is how inserts and removals cancel out.
+     */
+    private static final class PendingSection {
+
+        private final Section<?> mSection;
+        private final int mOldSize;
+        private final List<Segment> mSegments;
+
+        PendingSection(Section<?> section, int oldSize) {
+            mSection = section;
+            mOldSize = oldSize;
+            mSegments = new ArrayList<>();
+            if (oldSize > 0) {
+                mSegments.add(new Segment(0, oldSize));
+            }
+        }
+
+        int getNewSize() {
+            int size = 0;
+            for (Segment segment : mSegments) {
+                size += segment.mLength;
+            }
+            return size;
+        }
+
+        /**
+         * Splits segments so that a segment boundary falls on a given position
+         * @return The index of the segment that starts at {@code position}, which is equal to
+         *         the number of segments if the position is at the end
+         */
+        private int split(int position) {
+            int start = 0;
+            for (int i = 0; i < mSegments.size(); i++) {
+                Segment segment = mSegments.get(i);
+                if (position == start) {
+                    return i;
+                } else if (position < start + segment.mLength) {
+                    mSegments.add(i + 1, segment.splitAt(position - start));
+                    return i + 1;
+                }
+                start += segment.mLength;
+            }
+
+            if (position != start) {
+                throw new IndexOutOfBoundsException("Position " + position
+                        + " is out of bounds for a section with " + start + " items");
+            }
+            return mSegments.size();
+        }
+
+        void insert(int position, int count) {
+            if (count > 0) {
+                mSegments.add(split(position), new Segment(Segment.INSERTED, count));
+            }
+        }
+
+        void remove(int position, int count) {
+            if (count > 0) {
+                int first = split(position);
+                int end = split(position + count);
+                mSegments.subList(first, end).clear();
+            }
+        }
+
+        void change(int position, int count) {
+            if (count > 0) {
+                int first = split(position);
+                int end = split(position + count);
+                for (int i = first; i < end; i++) {
+                    mSegments.get(i).mChanged = true;
+                }
+            }
+        }
+
+        /**
+         * Notifies the adapter of the net change to this section. Insertions and removals are
+         * positioned against the old contents of the section and dispatched from the bottom up.
+         * Changes are dispatched afterwards, positioned against the new contents.
+         * @param adapter The adapter to notify
+         * @param offset The position of this section in the adapter before any changes
+         */
+        void dispatch(HeterogeneousAdapter adapter, int offset) {
+            int[] ops = new int[3 * (2 * mSegments.size() + 1)];
+            int opCount = 0;
+
+            int nextOld = 0;
+            for (Segment segment : mSegments) {
+                if (segment.mOldStart == Segment.INSERTED) {
+                    boolean merge = opCount > 0 && ops[opCount - 3] == OP_INSERT
+                            && ops[opCount - 2] == nextOld;
+                    if (merge) {
+                        ops[opCount - 1] += segment.mLength;
+                    } else {
+                        ops[opCount++] = OP_INSERT;
+                        ops[opCount++] = nextOld;
+                        ops[opCount++] = segment.mLength;
+                    }
+                } else {
+                    if (segment.mOldStart > nextOld) {
+                        ops[opCount++] = OP_REMOVE;
+                        ops[opCount++] = nextOld;
+                        ops[opCount++] = segment.mOldStart - nextOld;
+                    }
+                    nextOld = segment.mOldStart + segment.mLength;
+                }
+            }
+            if (nextOld < mOldSize) {
+                ops[opCount++] = OP_REMOVE;
+                ops[opCount++] = nextOld;
+                ops[opCount++] = mOldSize - nextOld;
+            }
+
+            for (int op = opCount - 3; op >= 0; op -= 3) {
+                if (ops[op] == OP_REMOVE) {
+                    adapter.notifyItemRangeRemoved(offset + ops[op + 1], ops[op + 2]);
+                } else {
+                    adapter.notifyItemRangeInserted(offset + ops[op + 1], ops[op + 2]);
+                }
+            }
+
+            int position = 0;
+            int changeStart = -1;
+            for (Segment segment : mSegments) {
+                boolean changed = segment.mChanged && segment.mOldStart != Segment.INSERTED;
+                if (changed && changeStart == -1) {
+                    changeStart = position;
+                } else if (!changed && changeStart != -1) {
+                    adapter.notifyItemRangeChanged(offset + changeStart, position - changeStart);
+                    changeStart = -1;
+                }
+                position += segment.mLength;
+            }
+            if (changeStart != -1) {
+                adapter.notifyItemRangeChanged(offset + changeStart, position - changeStart);
+            }
+        }
+    }
+
+    private static final class Segment {
+
+        static final int INSERTED = -1;
+
+        /**
+         * The index that this segment's first item had before any changes, or {@link #INSERTED}
+         */
+        final int mOldStart;
+        int mLength;
+        boolean mChanged;
+
+        Segment(int oldStart, int length) {
+            mOldStart = oldStart;
+            mLength = length;
+        }
+
+        /**
+         * Shortens this segment and returns a new segment for the items that were cut off
+         * @param index The index in this segment where the new segment should begin
+         */
+        Segment splitAt(int index) {
+            Segment tail = new Segment(
+                    (mOldStart == INSERTED) ? INSERTED : mOldStart + index, mLength - index);
+            tail.mChanged = mChanged;
+            mLength = index;
+            return tail;
+        }
+    }
+}
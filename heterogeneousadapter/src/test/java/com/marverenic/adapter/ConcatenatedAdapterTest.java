@@ -0,0 +1,103 @@
+package com.marverenic.adapter;
+
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+import android.view.ViewGroup;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that ViewHolders bound through a {@link ConcatenatedAdapter} report positions relative
+ * to the child adapter that bound them
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ConcatenatedAdapterTest {
+
+    @Test
+    public void viewHoldersInLaterChildrenUseLocalPositions() {
+        TestSection first = new TestSection(Arrays.asList("a", "b", "c"));
+        TestSection header = new TestSection(Arrays.asList("d"));
+        TestSection body = new TestSection(Arrays.asList("e", "f"));
+
+        HeterogeneousAdapter firstAdapter = new HeterogeneousAdapter().addSection(first);
+        HeterogeneousAdapter secondAdapter = new HeterogeneousAdapter()
+                .addSection(header)
+                .addSection(body);
+
+        ConcatenatedAdapter adapter = new ConcatenatedAdapter()
+                .addAdapter(firstAdapter)
+                .addAdapter(secondAdapter);
+        RecyclerView recyclerView = layout(adapter);
+        secondAdapter.setSelected(body, 1, true);
+
+        EnhancedViewHolder holder = findViewHolder(recyclerView, 5);
+        assertEquals(1, holder.getPositionInSection());
+        assertSame(body, holder.getSection());
+        assertTrue(holder.isItemSelected());
+
+        holder = findViewHolder(recyclerView, 4);
+        assertEquals(0, holder.getPositionInSection());
+        assertSame(body, holder.getSection());
+        assertFalse(holder.isItemSelected());
+
+        holder = findViewHolder(recyclerView, 3);
+        assertEquals(0, holder.getPositionInSection());
+        assertSame(header, holder.getSection());
+
+        holder = findViewHolder(recyclerView, 1);
+        assertEquals(1, holder.getPositionInSection());
+        assertSame(first, holder.getSection());
+        assertFalse(holder.isItemSelected());
+    }
+
+    private static RecyclerView layout(RecyclerView.Adapter<?> adapter) {
+        RecyclerView recyclerView = new RecyclerView(RuntimeEnvironment.application);
+        recyclerView.setLayoutManager(new LinearLayoutManager(RuntimeEnvironment.application));
+        recyclerView.setAdapter(adapter);
+
+        int size = View.MeasureSpec.makeMeasureSpec(1000, View.MeasureSpec.EXACTLY);
+        recyclerView.measure(size, size);
+        recyclerView.layout(0, 0, 1000, 1000);
+        return recyclerView;
+    }
+
+    private static EnhancedViewHolder findViewHolder(RecyclerView recyclerView, int position) {
+        return (EnhancedViewHolder) recyclerView.findViewHolderForAdapterPosition(position);
+    }
+
+    private static final class TestSection extends HeterogeneousAdapter.ListSection<String> {
+
+        private static final int ITEM_HEIGHT = 10;
+
+        TestSection(List<String> data) {
+            super(data);
+        }
+
+        @Override
+        public EnhancedViewHolder<String> createViewHolder(HeterogeneousAdapter adapter,
+                                                           ViewGroup parent) {
+            View view = new View(parent.getContext());
+            view.setLayoutParams(new ViewGroup.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT, ITEM_HEIGHT));
+            return new EnhancedViewHolder<String>(view) {
+                @Override
+                public void onUpdate(String item, int position) {
+                }
+            };
+        }
+    }
+}
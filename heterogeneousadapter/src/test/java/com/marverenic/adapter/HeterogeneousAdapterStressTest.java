@@ -0,0 +1,783 @@
+package com.marverenic.adapter;
+
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+import android.view.ViewGroup;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Applies long sequences of random operations to a {@link HeterogeneousAdapter} and compares its
+ * position bookkeeping against a naive model that recomputes everything from scratch. Every
+ * notification dispatched by the adapter is also replayed against a copy of the previous state,
+ * which must end up matching the model, so incorrect granular notifications are caught too.
+ *
+ * The model covers {@link HeterogeneousAdapter.ListSection ListSections} (including filters and
+ * placeholders), {@link SortedSection SortedSections}, and
+ * {@link HeterogeneousAdapter.LazySection LazySections}, which are reconciled by binding items.
+ *
+ * The throughput tests fail if lookups or mutations fall below a minimum rate, which would mean
+ * that the position mapping has regressed to scanning every section.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class HeterogeneousAdapterStressTest {
+
+    private static final long[] SEEDS = {1, 2, 3, 0xC0FFEE, 0xDEADBEEF};
+    private static final int OPERATIONS_PER_SEED = 2000;
+
+    private static final int MAX_SECTIONS = 12;
+    private static final int MAX_SECTION_SIZE = 40;
+    private static final int LAZY_SECTION_DISTANCE = 3;
+
+    private static final double MIN_LOOKUPS_PER_SECOND = 100000;
+    private static final double MIN_MUTATIONS_PER_SECOND = 5000;
+
+    private static final int LIST = 0;
+    private static final int SORTED = 1;
+    private static final int LAZY = 2;
+
+    /**
+     * A placeholder in {@link NotificationLog} for an item that was inserted or changed. These
+     * items are rebound, so their IDs may differ from before, and they're checked against the
+     * model after each operation.
+     */
+    private static final long INSERTED = Long.MIN_VALUE;
+
+    private Random mRandom;
+    private HeterogeneousAdapter mAdapter;
+    private RecyclerView mRecyclerView;
+    private List<ModelSection> mModel;
+    private NotificationLog mLog;
+    private int mNextItem;
+    private Integer mFilter;
+
+    @After
+    public void tearDown() {
+        AdapterExecutors.setBackgroundExecutor(null);
+    }
+
+    @Test
+    public void randomOperationsMatchModel() {
+        for (long seed : SEEDS) {
+            setUp(seed);
+            for (int i = 0; i < OPERATIONS_PER_SEED; i++) {
+                String operation = applyRandomOperation();
+                ShadowLooper.runUiThreadTasks();
+                verify("seed " + seed + ", operation " + i + " (" + operation + ")");
+            }
+        }
+    }
+
+    @Test
+    public void lookupThroughput() {
+        setUp(42);
+        for (int i = 0; i < 1000; i++) {
+            addSection(mModel.size(), LIST, 1 + mRandom.nextInt(100));
+        }
+        verify("setup");
+
+        // Precompute the expected coordinates so that the timed loop only compares ints
+        int itemCount = mAdapter.getItemCount();
+        int[] expectedSections = new int[itemCount];
+        int[] expectedIndices = new int[itemCount];
+        int position = 0;
+        for (int s = 0; s < mModel.size(); s++) {
+            for (int i = 0; i < mModel.get(s).getVisibleCount(); i++) {
+                expectedSections[position] = s;
+                expectedIndices[position] = i;
+                position++;
+            }
+        }
+
+        Coordinate coordinate = new Coordinate();
+        int lookups = 1000000;
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            position = mRandom.nextInt(itemCount);
+            mAdapter.lookupCoordinates(position, coordinate);
+            if (coordinate.getSection() != expectedSections[position]
+                    || coordinate.getItemIndex() != expectedIndices[position]) {
+                fail("Position " + position + " was looked up as item "
+                        + coordinate.getItemIndex() + " of section " + coordinate.getSection());
+            }
+        }
+        assertThroughput("Lookups across " + itemCount + " items", lookups,
+                System.nanoTime() - start, MIN_LOOKUPS_PER_SECOND);
+    }
+
+    @Test
+    public void mutationThroughput() {
+        setUp(7);
+        for (int i = 0; i < 200; i++) {
+            addSection(mModel.size(), LIST, 1 + mRandom.nextInt(100));
+        }
+        verify("setup");
+
+        int mutations = 20000;
+        long start = System.nanoTime();
+        for (int i = 0; i < mutations; i++) {
+            // Alternate between a granular change and a lookup that needs the updated offsets
+            collapse(mRandom.nextInt(mModel.size()));
+            mAdapter.getItemViewType(mRandom.nextInt(Math.max(1, mAdapter.getItemCount())));
+        }
+        assertThroughput("Collapses with lookups", mutations, System.nanoTime() - start,
+                MIN_MUTATIONS_PER_SECOND);
+        verify("after mutations");
+    }
+
+    /**
+     * Fails if operations ran slower than a minimum rate. The minimums are far below what the
+     * indexed position mapping achieves, so this only catches regressions to linear scans.
+     * @param name A description of the operations, used in the failure message
+     * @param operations The number of operations that were run
+     * @param nanos How long the operations took
+     * @param minimum The slowest acceptable rate, in operations per second
+     */
+    private static void assertThroughput(String name, long operations, long nanos,
+                                         double minimum) {
+        double opsPerSecond = operations / (nanos / 1e9);
+        if (opsPerSecond < minimum) {
+            fail(String.format(Locale.US, "%s: %d operations in %.1f ms (%.0f ops/s), expected at "
+                    + "least %.0f ops/s", name, operations, nanos / 1e6, opsPerSecond, minimum));
+        }
+    }
+
+    private void setUp(long seed) {
+        // Run filters synchronously so that they're applied by the next ShadowLooper call
+        AdapterExecutors.setBackgroundExecutor(new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                command.run();
+            }
+        });
+
+        mRandom = new Random(seed);
+        mAdapter = new HeterogeneousAdapter();
+        mAdapter.setLazySectionDistance(LAZY_SECTION_DISTANCE);
+        mAdapter.setPlaceholder(new Placeholder() {
+            @Override
+            public View onCreateView(RecyclerView.Adapter<EnhancedViewHolder> adapter,
+                                     ViewGroup parent) {
+                return new View(parent.getContext());
+            }
+        });
+
+        // SortedSections only send notifications while their adapter is attached
+        mRecyclerView = new RecyclerView(RuntimeEnvironment.application);
+        mRecyclerView.setAdapter(mAdapter);
+
+        mModel = new ArrayList<>();
+        mLog = new NotificationLog();
+        mAdapter.registerAdapterDataObserver(mLog);
+        mNextItem = 0;
+        mFilter = null;
+    }
+
+    private String applyRandomOperation() {
+        int sectionCount = mModel.size();
+        int choice = mRandom.nextInt(13);
+
+        boolean add = choice == 0 || choice == 8;
+        if (sectionCount == 0 || (add && sectionCount < MAX_SECTIONS)) {
+            int kind = mRandom.nextInt(4);
+            kind = (kind == 1) ? SORTED : (kind == 2) ? LAZY : LIST;
+            addSection(mRandom.nextInt(sectionCount + 1), kind,
+                    mRandom.nextInt(MAX_SECTION_SIZE));
+            return "add";
+        }
+
+        int index = mRandom.nextInt(sectionCount);
+        ModelSection section = mModel.get(index);
+        switch (choice) {
+            case 2:
+                return resize(index, false) ? "resize" : "resize (skipped)";
+            case 3:
+                return resize(index, true) ? "setSectionData" : "setSectionData (skipped)";
+            case 4:
+                if (section.mKind != LIST) {
+                    return "visibility (skipped)";
+                }
+                section.mList.mVisible = !section.mList.mVisible;
+                mAdapter.notifyDataSetChanged();
+                return "visibility";
+            case 5:
+                collapse(index);
+                return "collapse";
+            case 6:
+                return drag(index) ? "drag" : "drag (skipped)";
+            case 7:
+                shuffleSections();
+                return "setSections";
+            case 9:
+                filter();
+                return "filter";
+            case 10:
+                return togglePlaceholders(index) ? "placeholders" : "placeholders (skipped)";
+            case 11:
+                return bind() ? "bind" : "bind (empty)";
+            case 12:
+                return changeSortedSection(index) ? "sorted" : "sorted (skipped)";
+            default:
+                mAdapter.removeSection(index);
+                mModel.remove(index);
+                return "remove";
+        }
+    }
+
+    private void addSection(int index, int kind, int size) {
+        List<Integer> items = newItems(size);
+        ModelSection model;
+        if (kind == SORTED) {
+            TestSortedSection section = new TestSortedSection();
+            section.addAll(items);
+            model = new ModelSection(section, items);
+            section.mCollapsedCount = mRandom.nextInt(3);
+            model.mCollapsedCount = section.mCollapsedCount;
+        } else {
+            final TestSection section = new TestSection(new ArrayList<>(items));
+            section.mCollapsedCount = mRandom.nextInt(3);
+            if (kind == LAZY) {
+                int estimate = mRandom.nextInt(MAX_SECTION_SIZE);
+                HeterogeneousAdapter.LazySection<Integer> lazySection =
+                        new HeterogeneousAdapter.LazySection<>(estimate,
+                                new HeterogeneousAdapter.LazySection.Factory<Integer>() {
+                                    @Override
+                                    public HeterogeneousAdapter.Section<Integer> create() {
+                                        return section;
+                                    }
+                                });
+                model = new ModelSection(lazySection, section, items, estimate);
+            } else {
+                // Sections added while the adapter is filtered are filtered right away
+                model = new ModelSection(section, items);
+                model.mFilter = mFilter;
+            }
+            model.mCollapsedCount = section.mCollapsedCount;
+        }
+
+        mAdapter.addSection(model.mSection, index);
+        mModel.add(index, model);
+    }
+
+    private List<Integer> newItems(int size) {
+        List<Integer> items = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            items.add(mNextItem++);
+        }
+        return items;
+    }
+
+    /**
+     * Randomly keeps, removes, and inserts items in a ListSection
+     * @param granular true to apply the change with
+     *                 {@link HeterogeneousAdapter#setSectionData(HeterogeneousAdapter.ListSection,
+     *                 List)}, false to use {@link RecyclerView.Adapter#notifyDataSetChanged()}
+     * @return false if the section isn't a ListSection
+     */
+    private boolean resize(int index, boolean granular) {
+        ModelSection model = mModel.get(index);
+        if (model.mKind != LIST) {
+            return false;
+        }
+
+        List<Integer> items = new ArrayList<>();
+        for (Integer item : model.mItems) {
+            if (mRandom.nextInt(4) != 0) {
+                items.add(item);
+            }
+            if (mRandom.nextInt(4) == 0) {
+                items.add(mNextItem++);
+            }
+        }
+        if (mRandom.nextInt(4) == 0) {
+            items.addAll(mRandom.nextInt(items.size() + 1), newItems(1 + mRandom.nextInt(5)));
+        }
+        if (items.size() > MAX_SECTION_SIZE) {
+            items = new ArrayList<>(items.subList(0, MAX_SECTION_SIZE));
+        }
+
+        // Replacing a section's data keeps its filter
+        model.mItems = items;
+        if (granular) {
+            mAdapter.setSectionData(model.mList, new ArrayList<>(items));
+            model.mPlaceholderCount = 0;
+        } else {
+            model.mList.setData(new ArrayList<>(items));
+            mAdapter.notifyDataSetChanged();
+        }
+        return true;
+    }
+
+    private void collapse(int index) {
+        ModelSection model = mModel.get(index);
+        mAdapter.toggleSectionCollapsed(index);
+        model.mCollapsed = !model.mCollapsed;
+    }
+
+    /**
+     * Moves an item within a section the same way that {@link DragDropAdapter} does
+     * @return false if the section isn't an unfiltered ListSection with visible items
+     */
+    private boolean drag(int index) {
+        ModelSection model = mModel.get(index);
+        int visible = model.getVisibleCount();
+        if (model.mKind != LIST || model.mFilter != null || model.mPlaceholderCount > 0
+                || visible == 0) {
+            return false;
+        }
+
+        int from = mRandom.nextInt(visible);
+        int to = mRandom.nextInt(visible);
+        int offset = mAdapter.getLeadingViewCount(model.mSection.getTypeId());
+
+        model.mItems.add(to, model.mItems.remove(from));
+        List<Integer> data = model.mList.getData();
+        data.add(to, data.remove(from));
+        if (from != to) {
+            mAdapter.notifyItemMoved(offset + from, offset + to);
+        }
+        return true;
+    }
+
+    private void shuffleSections() {
+        List<ModelSection> next = new ArrayList<>(mModel);
+        Collections.shuffle(next, mRandom);
+        if (!next.isEmpty() && mRandom.nextBoolean()) {
+            next.remove(mRandom.nextInt(next.size()));
+        }
+
+        List<HeterogeneousAdapter.Section> sections = new ArrayList<>();
+        for (ModelSection section : next) {
+            sections.add(section.mSection);
+        }
+
+        mModel = next;
+        mAdapter.setSections(sections);
+    }
+
+    /**
+     * Filters every ListSection in the adapter to the multiples of a random number, or clears
+     * the filter
+     */
+    private void filter() {
+        int divisor = mRandom.nextInt(4);
+        mFilter = (divisor < 2) ? null : divisor;
+        mAdapter.filter((mFilter == null) ? null : mFilter.toString());
+
+        for (ModelSection model : mModel) {
+            if (model.mKind == LIST) {
+                model.mFilter = mFilter;
+            }
+        }
+    }
+
+    /**
+     * @return false if the section isn't a ListSection
+     */
+    private boolean togglePlaceholders(int index) {
+        ModelSection model = mModel.get(index);
+        if (model.mKind != LIST) {
+            return false;
+        }
+
+        if (model.mPlaceholderCount > 0) {
+            mAdapter.clearPlaceholders(model.mSection);
+            model.mPlaceholderCount = 0;
+        } else {
+            model.mPlaceholderCount = 1 + mRandom.nextInt(MAX_SECTION_SIZE);
+            mAdapter.showPlaceholders(model.mSection, model.mPlaceholderCount);
+        }
+        return true;
+    }
+
+    /**
+     * Binds a random item, which reconciles the LazySections near it once the main looper runs
+     * @return false if the adapter is empty
+     */
+    private boolean bind() {
+        int total = 0;
+        int[] offsets = new int[mModel.size()];
+        for (int i = 0; i < mModel.size(); i++) {
+            offsets[i] = total;
+            total += mModel.get(i).getVisibleCount();
+        }
+        if (total == 0) {
+            return false;
+        }
+
+        int position = mRandom.nextInt(total);
+        int index = findSection(offsets, position);
+        ModelSection section = mModel.get(index);
+        boolean checkItem = section.mKind != LAZY && section.mPlaceholderCount == 0;
+
+        int first = findSection(offsets, Math.max(0, position - LAZY_SECTION_DISTANCE));
+        int last = findSection(offsets, Math.min(total - 1, position + LAZY_SECTION_DISTANCE));
+        for (int i = first; i <= last; i++) {
+            if (mModel.get(i).mKind == LAZY) {
+                mModel.get(i).mReconciled = true;
+            }
+        }
+
+        EnhancedViewHolder holder = mAdapter.createViewHolder(mRecyclerView,
+                mAdapter.getItemViewType(position));
+        mAdapter.bindViewHolder(holder, position);
+
+        if (checkItem) {
+            int item = section.getVisibleItems().get(position - offsets[index]);
+            assertEquals("Bound item at " + position, item, (int) ((TestViewHolder) holder).mItem);
+        }
+        return true;
+    }
+
+    /**
+     * @return The index of the section that holds a position, skipping empty sections
+     */
+    private int findSection(int[] offsets, int position) {
+        for (int i = mModel.size() - 1; i >= 0; i--) {
+            if (offsets[i] <= position && mModel.get(i).getVisibleCount() > 0) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("No section holds position " + position);
+    }
+
+    /**
+     * Adds, updates, or removes items in a SortedSection, possibly in a batch
+     * @return false if the section isn't a SortedSection
+     */
+    private boolean changeSortedSection(int index) {
+        ModelSection model = mModel.get(index);
+        if (model.mKind != SORTED) {
+            return false;
+        }
+
+        boolean batch = mRandom.nextBoolean();
+        if (batch) {
+            model.mSorted.beginBatchedUpdates();
+        }
+
+        for (int i = batch ? 1 + mRandom.nextInt(5) : 1; i > 0; i--) {
+            int change = mRandom.nextInt(3);
+            if (model.mItems.isEmpty() || change == 0) {
+                if (model.mItems.size() < MAX_SECTION_SIZE) {
+                    int item = mNextItem++;
+                    model.mSorted.add(item);
+                    model.mItems.add(item);
+                }
+            } else {
+                Integer item = model.mItems.remove(mRandom.nextInt(model.mItems.size()));
+                if (change == 1) {
+                    model.mSorted.remove(item);
+                } else {
+                    // New items sort after every existing item, so this moves the item to the end
+                    int replacement = mNextItem++;
+                    model.mSorted.update(item, replacement);
+                    model.mItems.add(replacement);
+                }
+            }
+        }
+
+        if (batch) {
+            model.mSorted.endBatchedUpdates();
+        }
+        return true;
+    }
+
+    private void verify(String step) {
+        List<Long> expectedIds = new ArrayList<>();
+        List<Integer> expectedTypes = new ArrayList<>();
+        List<Integer> expectedSections = new ArrayList<>();
+        List<Integer> expectedIndices = new ArrayList<>();
+
+        for (int s = 0; s < mModel.size(); s++) {
+            ModelSection section = mModel.get(s);
+            int typeId = section.mSection.getTypeId();
+            List<Integer> items = section.getVisibleItems();
+            for (int i = 0; i < section.getVisibleCount(); i++) {
+                if (section.mPlaceholderCount > 0) {
+                    expectedIds.add(~((long) typeId << 32 | i));
+                    expectedTypes.add(HeterogeneousAdapter.PLACEHOLDER_TYPE);
+                } else if (section.mKind == LAZY && !section.mReconciled) {
+                    expectedIds.add(RecyclerView.NO_ID);
+                    expectedTypes.add(typeId);
+                } else {
+                    expectedIds.add((long) typeId << 32 | (items.get(i) & 0xFFFFFFFFL));
+                    expectedTypes.add(typeId);
+                }
+                expectedSections.add(s);
+                expectedIndices.add(i);
+            }
+        }
+
+        assertEquals(step + ": item count", expectedIds.size(), mAdapter.getItemCount());
+        assertEquals(step + ": section count", mModel.size(), mAdapter.getSectionCount());
+
+        Coordinate coordinate = new Coordinate();
+        for (int position = 0; position < expectedIds.size(); position++) {
+            mAdapter.lookupCoordinates(position, coordinate);
+
+            // Only build failure messages when needed, since this runs for every position
+            if (mAdapter.getItemViewType(position) != expectedTypes.get(position)
+                    || mAdapter.getItemId(position) != expectedIds.get(position)
+                    || coordinate.getSection() != expectedSections.get(position)
+                    || coordinate.getItemIndex() != expectedIndices.get(position)) {
+                String at = step + ": position " + position;
+                assertEquals(at + " view type", (int) expectedTypes.get(position),
+                        mAdapter.getItemViewType(position));
+                assertEquals(at + " item ID", (long) expectedIds.get(position),
+                        mAdapter.getItemId(position));
+                assertEquals(at + " section", (int) expectedSections.get(position),
+                        coordinate.getSection());
+                assertEquals(at + " item index", (int) expectedIndices.get(position),
+                        coordinate.getItemIndex());
+            }
+        }
+
+        mLog.check(step, expectedIds);
+    }
+
+    private static final class TestViewHolder extends EnhancedViewHolder<Integer> {
+
+        private Integer mItem;
+
+        TestViewHolder(View itemView) {
+            super(itemView);
+        }
+
+        @Override
+        public void onUpdate(Integer item, int position) {
+            mItem = item;
+        }
+    }
+
+    private static final class TestSection extends HeterogeneousAdapter.ListSection<Integer> {
+
+        private boolean mVisible = true;
+        private int mCollapsedCount;
+
+        TestSection(List<Integer> data) {
+            super(data);
+        }
+
+        @Override
+        public EnhancedViewHolder<Integer> createViewHolder(HeterogeneousAdapter adapter,
+                                                            ViewGroup parent) {
+            return new TestViewHolder(new View(parent.getContext()));
+        }
+
+        @Override
+        public int getId(int position) {
+            return get(position);
+        }
+
+        @Override
+        public boolean showSection(HeterogeneousAdapter adapter) {
+            return mVisible;
+        }
+
+        @Override
+        public int getCollapsedItemCount() {
+            return mCollapsedCount;
+        }
+
+        @Override
+        protected boolean onFilter(Integer item, @NonNull CharSequence query) {
+            return item % Integer.parseInt(query.toString()) == 0;
+        }
+
+        @Override
+        protected boolean isNarrowing(@NonNull CharSequence previous,
+                                      @NonNull CharSequence query) {
+            return false;
+        }
+    }
+
+    private static final class TestSortedSection extends SortedSection<Integer> {
+
+        private int mCollapsedCount;
+
+        TestSortedSection() {
+            super(Integer.class);
+        }
+
+        @Override
+        protected int compare(Integer first, Integer second) {
+            return first.compareTo(second);
+        }
+
+        @Override
+        public EnhancedViewHolder<Integer> createViewHolder(HeterogeneousAdapter adapter,
+                                                            ViewGroup parent) {
+            return new TestViewHolder(new View(parent.getContext()));
+        }
+
+        @Override
+        public int getId(int position) {
+            return get(position);
+        }
+
+        @Override
+        public int getCollapsedItemCount() {
+            return mCollapsedCount;
+        }
+    }
+
+    /**
+     * The expected state of a single section
+     */
+    private static final class ModelSection {
+
+        private final int mKind;
+        private final HeterogeneousAdapter.Section<Integer> mSection;
+        private final TestSection mList;
+        private final TestSortedSection mSorted;
+        private final int mEstimatedCount;
+
+        /**
+         * The section's items in order. SortedSections keep these in insertion order, since every
+         * new item is larger than the existing ones.
+         */
+        private List<Integer> mItems;
+        private int mCollapsedCount;
+        private boolean mCollapsed;
+        private Integer mFilter;
+        private int mPlaceholderCount;
+        private boolean mReconciled;
+
+        ModelSection(TestSection section, List<Integer> items) {
+            mKind = LIST;
+            mSection = section;
+            mList = section;
+            mSorted = null;
+            mEstimatedCount = 0;
+            mItems = items;
+        }
+
+        ModelSection(TestSortedSection section, List<Integer> items) {
+            mKind = SORTED;
+            mSection = section;
+            mList = null;
+            mSorted = section;
+            mEstimatedCount = 0;
+            mItems = items;
+        }
+
+        ModelSection(HeterogeneousAdapter.LazySection<Integer> section, TestSection delegate,
+                     List<Integer> items, int estimatedCount) {
+            mKind = LAZY;
+            mSection = section;
+            mList = delegate;
+            mSorted = null;
+            mEstimatedCount = estimatedCount;
+            mItems = items;
+            // Empty estimates are reconciled as soon as the section is added
+            mReconciled = estimatedCount == 0;
+        }
+
+        List<Integer> getVisibleItems() {
+            if (mKind == LIST && !mList.mVisible) {
+                return Collections.emptyList();
+            } else if (mFilter == null) {
+                return mItems;
+            }
+
+            List<Integer> items = new ArrayList<>();
+            for (Integer item : mItems) {
+                if (item % mFilter == 0) {
+                    items.add(item);
+                }
+            }
+            return items;
+        }
+
+        int getVisibleCount() {
+            int count;
+            int collapsedCount = mCollapsedCount;
+            if (mPlaceholderCount > 0) {
+                count = (mList.mVisible) ? mPlaceholderCount : 0;
+            } else if (mKind == LAZY && !mReconciled) {
+                count = mEstimatedCount;
+                collapsedCount = 0;
+            } else {
+                count = getVisibleItems().size();
+            }
+            return mCollapsed ? Math.min(count, collapsedCount) : count;
+        }
+    }
+
+    /**
+     * Replays notifications against the item IDs that were shown after the previous check
+     */
+    private static final class NotificationLog extends RecyclerView.AdapterDataObserver {
+
+        private List<Long> mIds = new ArrayList<>();
+        private boolean mReset;
+
+        @Override
+        public void onChanged() {
+            mReset = true;
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount, Object payload) {
+            // Placeholders and LazySections are replaced in place with change notifications
+            for (int i = 0; i < itemCount; i++) {
+                mIds.set(positionStart + i, INSERTED);
+            }
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            for (int i = 0; i < itemCount; i++) {
+                mIds.add(positionStart + i, INSERTED);
+            }
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            for (int i = 0; i < itemCount; i++) {
+                mIds.remove(positionStart);
+            }
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            assertEquals("Moves are dispatched one item at a time", 1, itemCount);
+            mIds.add(toPosition, mIds.remove(fromPosition));
+        }
+
+        void check(String step, List<Long> expected) {
+            if (!mReset) {
+                assertEquals(step + ": notified item count", expected.size(), mIds.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    long id = mIds.get(i);
+                    if (id != INSERTED && id != expected.get(i)) {
+                        fail(step + ": notified item at " + i + " was " + id
+                                + " instead of " + expected.get(i));
+                    }
+                }
+            }
+
+            mIds = new ArrayList<>(expected);
+            mReset = false;
+        }
+    }
+}
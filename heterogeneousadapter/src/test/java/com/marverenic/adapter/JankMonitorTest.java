@@ -0,0 +1,219 @@
+package com.marverenic.adapter;
+
+import android.support.annotation.NonNull;
+import android.view.View;
+import android.view.ViewGroup;
+
+import com.marverenic.adapter.HeterogeneousAdapter.Section;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a {@link JankMonitor} attributes slow frames to the sections that created or bound
+ * ViewHolders during them, and that its reports are exported as JSON
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class JankMonitorTest {
+
+    private static final long MILLIS = 1000000;
+    private static final long SLOW_BIND_NANOS = 2 * MILLIS;
+
+    private JankMonitor mMonitor;
+    private HeterogeneousAdapter mAdapter;
+    private TestSection mSlowSection;
+    private TestSection mFastSection;
+
+    @Before
+    public void setUp() {
+        mMonitor = new TestMonitor();
+        mSlowSection = new TestSection("slow", SLOW_BIND_NANOS, Arrays.asList(1, 2, 3));
+        mFastSection = new TestSection("fast", 0, Arrays.asList(4, 5));
+
+        mAdapter = new HeterogeneousAdapter();
+        mAdapter.addSection(mSlowSection);
+        mAdapter.addSection(mFastSection);
+        mAdapter.setJankMonitor(mMonitor);
+    }
+
+    @Test
+    public void slowFramesAreAttributedToSectionsThatDidWork() {
+        EnhancedViewHolder slowHolder = create(0);
+        mMonitor.onFrame(1000 * MILLIS);
+
+        // A fast frame isn't attributed to anything
+        mAdapter.onBindViewHolder(slowHolder, 0);
+        EnhancedViewHolder fastHolder = create(3);
+        mAdapter.onBindViewHolder(fastHolder, 3);
+        mMonitor.onFrame(1016 * MILLIS);
+
+        mAdapter.onBindViewHolder(slowHolder, 1);
+        mAdapter.onBindViewHolder(fastHolder, 4);
+        mMonitor.onFrame(1066 * MILLIS);
+
+        mAdapter.onBindViewHolder(fastHolder, 3);
+        mMonitor.onFrame(1100 * MILLIS);
+
+        JankMonitor.Report report = mMonitor.getReport();
+        assertEquals(3, report.getFrameCount());
+        assertEquals(2, report.getSlowFrameCount());
+        assertEquals(50 * MILLIS, report.getWorstFrameNanos());
+        assertEquals(2, report.getSections().size());
+
+        // Sections are sorted by the number of slow frames they were part of
+        JankMonitor.SectionReport fast = report.getSections().get(0);
+        assertEquals("fast", fast.getName());
+        assertEquals(2, fast.getSlowFrameCount());
+        assertEquals(0, fast.getCreateCount());
+        assertEquals(2, fast.getBindCount());
+        assertEquals(50 * MILLIS, fast.getWorstFrameNanos());
+
+        JankMonitor.SectionReport slow = report.getSections().get(1);
+        assertEquals("slow", slow.getName());
+        assertEquals(1, slow.getSlowFrameCount());
+        assertEquals(0, slow.getCreateCount());
+        assertEquals(1, slow.getBindCount());
+        assertTrue(slow.getWorstBindNanos() >= SLOW_BIND_NANOS);
+        assertEquals(slow.getWorstBindNanos(), slow.getBindNanos());
+        assertEquals(50 * MILLIS, slow.getWorstFrameNanos());
+    }
+
+    @Test
+    public void workBeforeTheFirstFrameIsIgnored() {
+        mAdapter.onBindViewHolder(create(0), 0);
+        mMonitor.onFrame(1000 * MILLIS);
+        mMonitor.onFrame(1100 * MILLIS);
+
+        JankMonitor.Report report = mMonitor.getReport();
+        assertEquals(1, report.getSlowFrameCount());
+        assertEquals(0, report.getSections().size());
+    }
+
+    @Test
+    public void sectionsWithTheSameNameAreAggregated() {
+        TestSection other = new TestSection("slow", 0, Arrays.asList(6));
+        mMonitor.onFrame(1000 * MILLIS);
+        mMonitor.onCreateViewHolder(mSlowSection, 3 * MILLIS);
+        mMonitor.onBindViewHolder(mSlowSection, 1 * MILLIS);
+        mMonitor.onBindViewHolder(other, 2 * MILLIS);
+        mMonitor.onFrame(1030 * MILLIS);
+
+        mMonitor.onBindViewHolder(other, 4 * MILLIS);
+        mMonitor.onFrame(1070 * MILLIS);
+
+        List<JankMonitor.SectionReport> sections = mMonitor.getReport().getSections();
+        assertEquals(1, sections.size());
+        JankMonitor.SectionReport slow = sections.get(0);
+        assertEquals(2, slow.getSlowFrameCount());
+        assertEquals(1, slow.getCreateCount());
+        assertEquals(3, slow.getBindCount());
+        assertEquals(3 * MILLIS, slow.getCreateNanos());
+        assertEquals(7 * MILLIS, slow.getBindNanos());
+        assertEquals(3 * MILLIS, slow.getWorstCreateNanos());
+        assertEquals(4 * MILLIS, slow.getWorstBindNanos());
+        assertEquals(40 * MILLIS, slow.getWorstFrameNanos());
+    }
+
+    @Test
+    public void resetDiscardsStatistics() {
+        mMonitor.onFrame(1000 * MILLIS);
+        mMonitor.onBindViewHolder(mSlowSection, MILLIS);
+        mMonitor.onFrame(1100 * MILLIS);
+        mMonitor.reset();
+
+        JankMonitor.Report report = mMonitor.getReport();
+        assertEquals(0, report.getFrameCount());
+        assertEquals(0, report.getSlowFrameCount());
+        assertEquals(0, report.getSections().size());
+
+        // Frames keep being measured from the last frame callback
+        mMonitor.onBindViewHolder(mFastSection, MILLIS);
+        mMonitor.onFrame(1130 * MILLIS);
+        report = mMonitor.getReport();
+        assertEquals(1, report.getSlowFrameCount());
+        assertEquals(1, report.getSections().size());
+        assertEquals("fast", report.getSections().get(0).getName());
+    }
+
+    @Test
+    public void reportIsExportedAsJson() {
+        TestSection quoted = new TestSection("a \"quoted\\\" name\n", 0, Arrays.asList(6));
+        mMonitor.onFrame(1000 * MILLIS);
+        mMonitor.onCreateViewHolder(quoted, 3);
+        mMonitor.onBindViewHolder(quoted, 5);
+        mMonitor.onFrame(1000 * MILLIS + 40);
+        mMonitor.onFrame(1040 * MILLIS);
+
+        assertEquals("{\"slowFrameThresholdNanos\":25000000,\"frameCount\":2,"
+                        + "\"slowFrameCount\":1,\"worstFrameNanos\":39999960,\"sections\":[]}",
+                mMonitor.getReport().toJson());
+
+        mMonitor.onBindViewHolder(quoted, 7);
+        mMonitor.onFrame(1070 * MILLIS);
+
+        assertEquals("{\"slowFrameThresholdNanos\":25000000,\"frameCount\":3,"
+                        + "\"slowFrameCount\":2,\"worstFrameNanos\":39999960,\"sections\":["
+                        + "{\"name\":\"a \\\"quoted\\\\\\\" name\\u000a\",\"slowFrameCount\":1,"
+                        + "\"createCount\":0,\"bindCount\":1,\"createNanos\":0,\"bindNanos\":7,"
+                        + "\"worstCreateNanos\":0,\"worstBindNanos\":7,"
+                        + "\"worstFrameNanos\":30000000}]}",
+                mMonitor.getReport().toJson());
+    }
+
+    private EnhancedViewHolder create(int position) {
+        return mAdapter.onCreateViewHolder(null, mAdapter.getItemViewType(position));
+    }
+
+    /**
+     * A monitor that reports sections by their {@link TestSection#mName}
+     */
+    private static final class TestMonitor extends JankMonitor {
+
+        TestMonitor() {
+            super(25);
+        }
+
+        @NonNull
+        @Override
+        protected String getSectionName(@NonNull Section section) {
+            return ((TestSection) section).mName;
+        }
+    }
+
+    private static final class TestSection extends HeterogeneousAdapter.ListSection<Integer> {
+
+        private final String mName;
+        private final long mBindNanos;
+
+        TestSection(String name, long bindNanos, List<Integer> data) {
+            super(data);
+            mName = name;
+            mBindNanos = bindNanos;
+        }
+
+        @Override
+        public EnhancedViewHolder<Integer> createViewHolder(HeterogeneousAdapter adapter,
+                                                            ViewGroup parent) {
+            return new EnhancedViewHolder<Integer>(new View(RuntimeEnvironment.application)) {
+                @Override
+                public void onUpdate(Integer item, int position) {
+                    long start = System.nanoTime();
+                    while (System.nanoTime() - start < mBindNanos) {
+                        // Simulate an expensive bind
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.marverenic.adapter;
+
+import android.support.annotation.NonNull;
+import android.view.ViewGroup;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Saves and restores {@link SectionSnapshot SectionSnapshots}, and checks that snapshots that
+ * were truncated or corrupted are discarded without modifying any section
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class SectionSnapshotTest {
+
+    private static final int VERSION = 3;
+
+    /**
+     * The size of the magic number and the two version numbers at the start of a snapshot
+     */
+    private static final int HEADER_SIZE = 12;
+
+    private File mFile;
+    private HeterogeneousAdapter mAdapter;
+    private TestSection mHeader;
+    private TestSection mNumbers;
+    private TestSection mWords;
+
+    @Before
+    public void setUp() {
+        AdapterExecutors.setBackgroundExecutor(new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                command.run();
+            }
+        });
+
+        mFile = new File(RuntimeEnvironment.application.getCacheDir(), "section-snapshot-test");
+        mFile.delete();
+
+        // The header isn't saved, but still takes up space on screen
+        mHeader = new TestSection(null, Arrays.asList("header", "subheader"));
+        mNumbers = new TestSection("numbers", Arrays.asList("1", "2", "3", "4"));
+        mWords = new TestSection("words", Arrays.asList("a", "b", "c", "d"));
+
+        mAdapter = new HeterogeneousAdapter();
+        mAdapter.addSection(mHeader);
+        mAdapter.addSection(mNumbers);
+        mAdapter.addSection(mWords);
+    }
+
+    @After
+    public void tearDown() {
+        AdapterExecutors.setBackgroundExecutor(null);
+        mFile.delete();
+    }
+
+    @Test
+    public void restoresTheFirstScreenByKey() {
+        new SectionSnapshot(mFile, VERSION).save(mAdapter, 7);
+
+        // Sections are matched by key, so they may be added in a different order
+        TestSection words = new TestSection("words", new ArrayList<String>());
+        TestSection numbers = new TestSection("numbers", new ArrayList<String>());
+        TestSection other = new TestSection("other", Arrays.asList("x"));
+        HeterogeneousAdapter restored = new HeterogeneousAdapter();
+        restored.addSection(words);
+        restored.addSection(other);
+        restored.addSection(numbers);
+
+        assertTrue(new SectionSnapshot(mFile, VERSION).restore(restored));
+        assertEquals(Arrays.asList("1", "2", "3", "4"), numbers.getData());
+        assertEquals(Arrays.asList("a"), words.getData());
+        assertEquals(Arrays.asList("x"), other.getData());
+    }
+
+    @Test
+    public void onlyVisibleItemsAreSaved() {
+        mAdapter.filter("[2-4b-d]");
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        mWords.mCollapsedCount = 1;
+        mAdapter.setSectionCollapsed(2, true);
+        new SectionSnapshot(mFile, VERSION).save(mAdapter, 100);
+
+        TestSection numbers = new TestSection("numbers", new ArrayList<String>());
+        TestSection words = new TestSection("words", new ArrayList<String>());
+        HeterogeneousAdapter restored = new HeterogeneousAdapter();
+        restored.addSection(numbers);
+        restored.addSection(words);
+
+        assertTrue(new SectionSnapshot(mFile, VERSION).restore(restored));
+        assertEquals(Arrays.asList("2", "3", "4"), numbers.getData());
+        assertEquals(Arrays.asList("b"), words.getData());
+    }
+
+    @Test
+    public void snapshotsFromOtherVersionsAreIgnored() {
+        new SectionSnapshot(mFile, VERSION).save(mAdapter, 100);
+
+        TestSection numbers = new TestSection("numbers", Arrays.asList("live"));
+        HeterogeneousAdapter restored = new HeterogeneousAdapter();
+        restored.addSection(numbers);
+
+        assertFalse(new SectionSnapshot(mFile, VERSION + 1).restore(restored));
+        assertEquals(Arrays.asList("live"), numbers.getData());
+        assertTrue(mFile.exists());
+    }
+
+    @Test
+    public void truncatedSnapshotsAreDiscarded() throws IOException {
+        new SectionSnapshot(mFile, VERSION).save(mAdapter, 100);
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(file.length() - 3);
+        } finally {
+            file.close();
+        }
+
+        assertDiscarded();
+    }
+
+    @Test
+    public void corruptSectionLengthsAreDiscarded() throws IOException {
+        new SectionSnapshot(mFile, VERSION).save(mAdapter, 100);
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            // Skip the header and the first section's key, which is written as modified UTF-8
+            file.seek(HEADER_SIZE + 2 + "numbers".length());
+            file.writeInt(Integer.MAX_VALUE);
+        } finally {
+            file.close();
+        }
+
+        assertDiscarded();
+    }
+
+    @Test
+    public void unrecognizedFilesAreDiscarded() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.writeUTF("not a snapshot");
+        } finally {
+            file.close();
+        }
+
+        assertDiscarded();
+    }
+
+    /**
+     * Checks that the snapshot can't be restored, that it's deleted, and that none of the
+     * sections it was restored into were modified, even if some of them could be decoded
+     */
+    private void assertDiscarded() {
+        TestSection numbers = new TestSection("numbers", Arrays.asList("live"));
+        TestSection words = new TestSection("words", Collections.<String>emptyList());
+        HeterogeneousAdapter restored = new HeterogeneousAdapter();
+        restored.addSection(numbers);
+        restored.addSection(words);
+
+        assertFalse(new SectionSnapshot(mFile, VERSION).restore(restored));
+        assertFalse(mFile.exists());
+        assertEquals(Arrays.asList("live"), numbers.getData());
+        assertEquals(Collections.<String>emptyList(), words.getData());
+    }
+
+    private static final class TestSection extends HeterogeneousAdapter.ListSection<String> {
+
+        private static final SectionSnapshot.Codec<String> CODEC =
+                new SectionSnapshot.Codec<String>() {
+                    @Override
+                    public void write(@NonNull DataOutput out, String item) throws IOException {
+                        out.writeUTF(item);
+                    }
+
+                    @Override
+                    public String read(@NonNull DataInput in) throws IOException {
+                        return in.readUTF();
+                    }
+                };
+
+        private final String mKey;
+        private int mCollapsedCount;
+
+        TestSection(String key, List<String> data) {
+            super(data);
+            mKey = key;
+        }
+
+        @Override
+        protected String getSnapshotKey() {
+            return mKey;
+        }
+
+        @Override
+        protected SectionSnapshot.Codec<String> getSnapshotCodec() {
+            return (mKey == null) ? null : CODEC;
+        }
+
+        @Override
+        public int getCollapsedItemCount() {
+            return mCollapsedCount;
+        }
+
+        @Override
+        protected boolean onFilter(String item, @NonNull CharSequence query) {
+            return item.matches(query.toString());
+        }
+
+        @Override
+        public EnhancedViewHolder<String> createViewHolder(HeterogeneousAdapter adapter,
+                                                           ViewGroup parent) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
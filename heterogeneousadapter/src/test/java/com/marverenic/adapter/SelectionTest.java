@@ -0,0 +1,157 @@
+package com.marverenic.adapter;
+
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+import android.view.ViewGroup;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that selections stay attached to the same items while sections are filtered and their
+ * data is replaced
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class SelectionTest {
+
+    private HeterogeneousAdapter mAdapter;
+    private TestSection mSection;
+    private List<Integer> mSelectionChanges;
+
+    @Before
+    public void setUp() {
+        AdapterExecutors.setBackgroundExecutor(new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                command.run();
+            }
+        });
+
+        mAdapter = new HeterogeneousAdapter();
+        mAdapter.addSection(new TestSection(Arrays.asList("header")));
+        mSection = new TestSection(new ArrayList<>(Arrays.asList("a", "b", "c", "d", "e", "f")));
+        mAdapter.addSection(mSection);
+
+        mSelectionChanges = new ArrayList<>();
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onItemRangeChanged(int positionStart, int itemCount, Object payload) {
+                if (payload == HeterogeneousAdapter.PAYLOAD_SELECTION) {
+                    for (int i = 0; i < itemCount; i++) {
+                        mSelectionChanges.add(positionStart + i);
+                    }
+                }
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        AdapterExecutors.setBackgroundExecutor(null);
+    }
+
+    @Test
+    public void selectionFollowsItemsThroughFilter() {
+        mAdapter.setSelected(mSection, 2, true);
+        mAdapter.setSelected(mSection, 4, true);
+
+        filter("header|c|d|e|f");
+        assertSelected("c", "e");
+        assertTrue(mAdapter.isSelected(mSection, 0));
+        assertFalse(mAdapter.isSelected(mSection, 1));
+        assertTrue(mAdapter.isSelected(mSection, 2));
+
+        // Items are notified at their filtered positions
+        mSelectionChanges.clear();
+        mAdapter.setRangeSelected(mSection, 1, 3, true);
+        assertEquals(Arrays.asList(2, 4), mSelectionChanges);
+        assertSelected("c", "d", "e", "f");
+
+        filter(null);
+        assertSelected("c", "d", "e", "f");
+        assertEquals(4, mAdapter.getSelection(mSection).size());
+        assertEquals(1, mAdapter.getSelection(mSection).getRangeCount());
+    }
+
+    @Test
+    public void selectingFilteredRangeSkipsHiddenItems() {
+        filter("header|a|c|d|f");
+        mAdapter.setRangeSelected(mSection, 0, 4, true);
+        assertEquals(3, mAdapter.getSelection(mSection).getRangeCount());
+
+        filter(null);
+        assertSelected("a", "c", "d", "f");
+
+        mSelectionChanges.clear();
+        mAdapter.clearSelection();
+        assertEquals(Arrays.asList(1, 3, 4, 6), mSelectionChanges);
+        assertSelected();
+    }
+
+    @Test
+    public void selectionFollowsItemsThroughNewData() {
+        mAdapter.setSelected(mSection, 1, true);
+        mAdapter.setSelected(mSection, 3, true);
+
+        mAdapter.setSectionData(mSection, Arrays.asList("x", "a", "c", "d", "e"));
+        assertSelected("d");
+
+        mAdapter.setSectionData(mSection, Arrays.asList("d", "y", "z"));
+        assertSelected("d");
+        assertEquals(1, mAdapter.getSelectedItemCount());
+    }
+
+    private void filter(CharSequence query) {
+        mAdapter.filter(query);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+    }
+
+    private void assertSelected(String... items) {
+        List<String> selected = new ArrayList<>();
+        for (int i = 0; i < mSection.getItemCount(mAdapter); i++) {
+            if (mAdapter.isSelected(mSection, i)) {
+                selected.add(mSection.get(i));
+            }
+        }
+        assertEquals(Arrays.asList(items), selected);
+    }
+
+    private static final class TestSection extends HeterogeneousAdapter.ListSection<String> {
+
+        TestSection(List<String> data) {
+            super(data);
+        }
+
+        @Override
+        public EnhancedViewHolder<String> createViewHolder(HeterogeneousAdapter adapter,
+                                                           ViewGroup parent) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected boolean onFilter(String item, @NonNull CharSequence query) {
+            return item.matches(query.toString());
+        }
+
+        @Override
+        protected boolean isNarrowing(@NonNull CharSequence previous,
+                                      @NonNull CharSequence query) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package com.marverenic.adapter;
+
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+import android.view.ViewGroup;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Applies random insertions, updates, and removals to a {@link SortedSection} and compares the
+ * section, its selection, and the notifications it sends against a sorted model. Every change must
+ * be notified granularly. Placeholders are shown and cleared along the way to check that they stay
+ * in place while the section changes.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class SortedSectionTest {
+
+    private static final long[] SEEDS = {1, 2, 3, 0xC0FFEE, 0xDEADBEEF};
+    private static final int OPERATIONS_PER_SEED = 1000;
+
+    private static final int MAX_VALUE = 200;
+
+    /**
+     * A placeholder in {@link NotificationLog} for an item that was inserted or changed
+     */
+    private static final long INSERTED = Long.MIN_VALUE;
+
+    private Random mRandom;
+    private HeterogeneousAdapter mAdapter;
+    private HeaderSection mHeader;
+    private TestSection mSection;
+    private NotificationLog mLog;
+
+    private List<Integer> mItems;
+    private Set<Integer> mSelected;
+    private int mPlaceholderCount;
+
+    @Test
+    public void randomOperationsMatchModel() {
+        for (long seed : SEEDS) {
+            setUp(seed);
+            for (int i = 0; i < OPERATIONS_PER_SEED; i++) {
+                String operation = applyRandomOperation();
+                verify("seed " + seed + ", operation " + i + " (" + operation + ")");
+            }
+        }
+    }
+
+    private void setUp(long seed) {
+        mRandom = new Random(seed);
+        mAdapter = new HeterogeneousAdapter();
+        mAdapter.setPlaceholder(new Placeholder() {
+            @Override
+            public View onCreateView(RecyclerView.Adapter<EnhancedViewHolder> adapter,
+                                     ViewGroup parent) {
+                throw new UnsupportedOperationException();
+            }
+        });
+
+        mHeader = new HeaderSection(Arrays.asList(MAX_VALUE, MAX_VALUE + 1));
+        mSection = new TestSection();
+        mAdapter.addSection(mHeader);
+        mAdapter.addSection(mSection);
+
+        // SortedSection only sends notifications while its adapter is attached
+        new RecyclerView(RuntimeEnvironment.application).setAdapter(mAdapter);
+        mItems = new ArrayList<>();
+        mSelected = new HashSet<>();
+        mPlaceholderCount = 0;
+
+        mLog = new NotificationLog(getExpectedIds());
+        mAdapter.registerAdapterDataObserver(mLog);
+        verify("setup");
+    }
+
+    private String applyRandomOperation() {
+        int choice = mRandom.nextInt(12);
+        if (mItems.isEmpty() && choice >= 2 && choice <= 7) {
+            choice = 0;
+        }
+
+        switch (choice) {
+            case 0:
+            case 1:
+                add();
+                return "add";
+            case 2:
+            case 3:
+                update();
+                return "update";
+            case 4:
+                remove();
+                return "remove";
+            case 5:
+            case 6:
+                toggleSelection();
+                return "select";
+            case 7:
+                batch();
+                return "batch";
+            case 8:
+                if (mPlaceholderCount == 0) {
+                    mPlaceholderCount = 1 + mRandom.nextInt(10);
+                    mAdapter.showPlaceholders(mSection, mPlaceholderCount);
+                    return "showPlaceholders";
+                }
+                mPlaceholderCount = 0;
+                mAdapter.clearPlaceholders(mSection);
+                return "clearPlaceholders";
+            case 9:
+                addAll();
+                return "addAll";
+            case 10:
+                if (mRandom.nextInt(10) == 0) {
+                    mSection.clear();
+                    mItems.clear();
+                    mSelected.clear();
+                    return "clear";
+                }
+                add();
+                return "add";
+            default:
+                if (mPlaceholderCount > 0) {
+                    mPlaceholderCount = 0;
+                    mAdapter.clearPlaceholders(mSection);
+                    return "clearPlaceholders";
+                }
+                add();
+                return "add";
+        }
+    }
+
+    private int newValue() {
+        if (mItems.size() >= MAX_VALUE) {
+            return -1;
+        }
+
+        int value;
+        do {
+            value = mRandom.nextInt(MAX_VALUE);
+        } while (mItems.contains(value));
+        return value;
+    }
+
+    private void add() {
+        int value = newValue();
+        if (value != -1) {
+            mSection.add(value);
+            insertIntoModel(value);
+        }
+    }
+
+    private void addAll() {
+        List<Integer> values = new ArrayList<>();
+        for (int i = mRandom.nextInt(6); i > 0; i--) {
+            int value = newValue();
+            if (value != -1 && !values.contains(value)) {
+                values.add(value);
+                insertIntoModel(value);
+            }
+        }
+        mSection.addAll(values);
+    }
+
+    private void update() {
+        Integer oldValue = mItems.get(mRandom.nextInt(mItems.size()));
+        int newValue = newValue();
+        if (newValue == -1) {
+            return;
+        }
+
+        mSection.update(oldValue, newValue);
+        mItems.remove(oldValue);
+        insertIntoModel(newValue);
+        if (mSelected.remove(oldValue)) {
+            mSelected.add(newValue);
+        }
+    }
+
+    private void remove() {
+        Integer value = mItems.get(mRandom.nextInt(mItems.size()));
+        mSection.remove(value);
+        mItems.remove(value);
+        mSelected.remove(value);
+    }
+
+    private void toggleSelection() {
+        int position = mRandom.nextInt(mItems.size());
+        Integer value = mItems.get(position);
+        boolean selected = !mSelected.contains(value);
+
+        mAdapter.setSelected(mSection, position, selected);
+        if (selected) {
+            mSelected.add(value);
+        } else {
+            mSelected.remove(value);
+        }
+    }
+
+    private void batch() {
+        mSection.beginBatchedUpdates();
+        for (int i = 1 + mRandom.nextInt(6); i > 0; i--) {
+            if (mItems.isEmpty() || mRandom.nextBoolean()) {
+                add();
+            } else if (mRandom.nextBoolean()) {
+                update();
+            } else {
+                remove();
+            }
+        }
+        mSection.endBatchedUpdates();
+    }
+
+    private void insertIntoModel(int value) {
+        int index = Collections.binarySearch(mItems, value);
+        mItems.add(-(index + 1), value);
+    }
+
+    private void verify(String step) {
+        List<Long> expectedIds = getExpectedIds();
+        assertEquals(step + ": item count", expectedIds.size(), mAdapter.getItemCount());
+        assertEquals(step + ": section size", mItems.size(), mSection.size());
+        for (int i = 0; i < mItems.size(); i++) {
+            assertEquals(step + ": item " + i, mItems.get(i), mSection.get(i));
+            assertEquals(step + ": selection of " + mItems.get(i),
+                    mSelected.contains(mItems.get(i)), mAdapter.isSelected(mSection, i));
+        }
+        assertEquals(step + ": selected count", mSelected.size(), mAdapter.getSelectedItemCount());
+
+        for (int position = 0; position < expectedIds.size(); position++) {
+            if (mAdapter.getItemId(position) != expectedIds.get(position)) {
+                assertEquals(step + ": item ID at " + position, (long) expectedIds.get(position),
+                        mAdapter.getItemId(position));
+            }
+        }
+
+        mLog.check(step, expectedIds);
+    }
+
+    private List<Long> getExpectedIds() {
+        List<Long> expectedIds = new ArrayList<>();
+        for (int i = 0; i < mHeader.getData().size(); i++) {
+            expectedIds.add(getItemId(mHeader, mHeader.get(i)));
+        }
+
+        long sectionType = (long) mSection.getTypeId() << 32;
+        if (mPlaceholderCount > 0) {
+            for (int i = 0; i < mPlaceholderCount; i++) {
+                expectedIds.add(~(sectionType | i));
+            }
+        } else {
+            for (int item : mItems) {
+                expectedIds.add(getItemId(mSection, item));
+            }
+        }
+        return expectedIds;
+    }
+
+    private static long getItemId(HeterogeneousAdapter.Section<?> section, int item) {
+        return (long) section.getTypeId() << 32 | (item & 0xFFFFFFFFL);
+    }
+
+    private static final class TestSection extends SortedSection<Integer> {
+
+        TestSection() {
+            super(Integer.class);
+        }
+
+        @Override
+        protected int compare(Integer first, Integer second) {
+            return first.compareTo(second);
+        }
+
+        @Override
+        public int getId(int position) {
+            return get(position);
+        }
+
+        @Override
+        public EnhancedViewHolder<Integer> createViewHolder(HeterogeneousAdapter adapter,
+                                                            ViewGroup parent) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static final class HeaderSection extends HeterogeneousAdapter.ListSection<Integer> {
+
+        HeaderSection(List<Integer> data) {
+            super(data);
+        }
+
+        @Override
+        public int getId(int position) {
+            return get(position);
+        }
+
+        @Override
+        public EnhancedViewHolder<Integer> createViewHolder(HeterogeneousAdapter adapter,
+                                                            ViewGroup parent) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Replays notifications against the item IDs that were shown after the previous check
+     */
+    private static final class NotificationLog extends RecyclerView.AdapterDataObserver {
+
+        private List<Long> mIds;
+        private boolean mRefreshed;
+
+        NotificationLog(List<Long> ids) {
+            mIds = new ArrayList<>(ids);
+        }
+
+        @Override
+        public void onChanged() {
+            mRefreshed = true;
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount, Object payload) {
+            for (int i = 0; i < itemCount; i++) {
+                mIds.set(positionStart + i, INSERTED);
+            }
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            for (int i = 0; i < itemCount; i++) {
+                mIds.add(positionStart + i, INSERTED);
+            }
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            for (int i = 0; i < itemCount; i++) {
+                mIds.remove(positionStart);
+            }
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            assertEquals("Moves are dispatched one item at a time", 1, itemCount);
+            mIds.add(toPosition, mIds.remove(fromPosition));
+        }
+
+        void check(String step, List<Long> expected) {
+            assertFalse(step + ": the adapter was refreshed instead of notified", mRefreshed);
+            assertEquals(step + ": notified item count", expected.size(), mIds.size());
+            for (int i = 0; i < expected.size(); i++) {
+                long id = mIds.get(i);
+                if (id != INSERTED && id != expected.get(i)) {
+                    fail(step + ": notified item at " + i + " was " + id
+                            + " instead of " + expected.get(i));
+                }
+            }
+
+            mIds = new ArrayList<>(expected);
+        }
+    }
+}
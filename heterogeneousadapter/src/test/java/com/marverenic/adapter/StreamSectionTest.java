@@ -0,0 +1,222 @@
+package com.marverenic.adapter;
+
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+import android.view.ViewGroup;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a {@link StreamSection} only diffs the newest emission when its source emits
+ * faster than diffs finish, and that it unsubscribes from its source when it's no longer shown
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class StreamSectionTest {
+
+    private HeterogeneousAdapter mAdapter;
+    private RecyclerView mRecyclerView;
+    private TestSource mSource;
+    private TestSection mSection;
+
+    /**
+     * Diffs that have been started but haven't run yet
+     */
+    private List<Runnable> mPendingDiffs;
+    private int mDiffCount;
+
+    @Before
+    public void setUp() {
+        mPendingDiffs = new ArrayList<>();
+        AdapterExecutors.setStreamExecutor(new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                mPendingDiffs.add(command);
+            }
+        });
+
+        mAdapter = new HeterogeneousAdapter();
+        mAdapter.addSection(new HeaderSection());
+        mSource = new TestSource();
+        mSection = new TestSection(mSource);
+        mAdapter.addSection(mSection);
+
+        mRecyclerView = new RecyclerView(RuntimeEnvironment.application);
+        mRecyclerView.setAdapter(mAdapter);
+    }
+
+    @After
+    public void tearDown() {
+        AdapterExecutors.setStreamExecutor(null);
+    }
+
+    @Test
+    public void emissionsDuringADiffAreConflated() {
+        assertNotNull(mSource.mEmitter);
+        assertTrue(mSection.isSubscribed());
+
+        mSource.mEmitter.onNext(Arrays.asList("a", "b"));
+        ShadowLooper.runUiThreadTasks();
+        assertEquals(1, mPendingDiffs.size());
+
+        // These arrive while the first diff is still running
+        mSource.mEmitter.onNext(Arrays.asList("a", "b", "c"));
+        mSource.mEmitter.onNext(Arrays.asList("b", "c", "d"));
+        mSource.mEmitter.onDelta(new StreamSection.Delta<String>() {
+            @Override
+            public List<String> apply(@NonNull List<String> current) {
+                List<String> next = new ArrayList<>(current);
+                next.add("e");
+                return next;
+            }
+        });
+        ShadowLooper.runUiThreadTasks();
+        assertEquals(1, mPendingDiffs.size());
+
+        runDiffs();
+        assertEquals(Arrays.asList("b", "c", "d", "e"), mSection.getData());
+        assertEquals(5, mAdapter.getItemCount());
+
+        // The first emission and the newest one are diffed, but the ones in between are skipped
+        assertEquals(2, mDiffCount);
+    }
+
+    @Test
+    public void emissionsAreNotifiedGranularly() {
+        mSource.mEmitter.onNext(Arrays.asList("a", "b", "c"));
+        ShadowLooper.runUiThreadTasks();
+        runDiffs();
+
+        final List<String> notifications = new ArrayList<>();
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                notifications.add("refresh");
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                notifications.add("insert " + positionStart + " " + itemCount);
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                notifications.add("remove " + positionStart + " " + itemCount);
+            }
+        });
+
+        mSource.mEmitter.onNext(Arrays.asList("a", "c", "d"));
+        ShadowLooper.runUiThreadTasks();
+        runDiffs();
+        assertEquals(Arrays.asList("insert 4 1", "remove 2 1"), notifications);
+    }
+
+    @Test
+    public void removingTheSectionUnsubscribes() {
+        StreamSection.Emitter<String> emitter = mSource.mEmitter;
+        mAdapter.removeSection(1);
+
+        assertEquals(1, mSource.mUnsubscribeCount);
+        assertFalse(mSection.isSubscribed());
+        assertFalse(emitter.isActive());
+
+        emitter.onNext(Arrays.asList("a"));
+        ShadowLooper.runUiThreadTasks();
+        assertEquals(0, mPendingDiffs.size());
+        assertTrue(mSection.getData().isEmpty());
+    }
+
+    @Test
+    public void detachingTheAdapterUnsubscribes() {
+        StreamSection.Emitter<String> emitter = mSource.mEmitter;
+        mRecyclerView.setAdapter(null);
+
+        assertEquals(1, mSource.mUnsubscribeCount);
+        assertFalse(mSection.isSubscribed());
+        assertFalse(emitter.isActive());
+
+        // A diff that finishes after the section was detached isn't applied
+        mRecyclerView.setAdapter(mAdapter);
+        mSource.mEmitter.onNext(Arrays.asList("a"));
+        ShadowLooper.runUiThreadTasks();
+        mRecyclerView.setAdapter(null);
+        runDiffs();
+        assertTrue(mSection.getData().isEmpty());
+        assertNull(mSource.mEmitter);
+    }
+
+    /**
+     * Runs every pending diff and the main thread work that applies it, including any diffs
+     * that are started while doing so
+     */
+    private void runDiffs() {
+        while (!mPendingDiffs.isEmpty()) {
+            mPendingDiffs.remove(0).run();
+            mDiffCount++;
+            ShadowLooper.runUiThreadTasks();
+        }
+    }
+
+    private static final class TestSource implements StreamSection.Source<String> {
+
+        private StreamSection.Emitter<String> mEmitter;
+        private int mUnsubscribeCount;
+
+        @Override
+        public StreamSection.Subscription subscribe(
+                @NonNull StreamSection.Emitter<String> emitter) {
+            mEmitter = emitter;
+            return new StreamSection.Subscription() {
+                @Override
+                public void unsubscribe() {
+                    mEmitter = null;
+                    mUnsubscribeCount++;
+                }
+            };
+        }
+    }
+
+    private static final class TestSection extends StreamSection<String> {
+
+        TestSection(Source<String> source) {
+            super(source);
+        }
+
+        @Override
+        public EnhancedViewHolder<String> createViewHolder(HeterogeneousAdapter adapter,
+                                                           ViewGroup parent) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static final class HeaderSection extends HeterogeneousAdapter.ListSection<String> {
+
+        HeaderSection() {
+            super(Arrays.asList("header"));
+        }
+
+        @Override
+        public EnhancedViewHolder<String> createViewHolder(HeterogeneousAdapter adapter,
+                                                           ViewGroup parent) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.marverenic.adapter;
+
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+import android.view.ViewGroup;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link UpdateScheduler} holds changes until the next frame, merges them into as
+ * few notifications as possible, and drops items that are inserted and removed before they're
+ * shown
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class UpdateSchedulerTest {
+
+    private HeterogeneousAdapter mAdapter;
+    private UpdateScheduler mScheduler;
+    private TestSection mSection;
+    private List<String> mNotifications;
+
+    @Before
+    public void setUp() {
+        mAdapter = new HeterogeneousAdapter();
+        mAdapter.addSection(new TestSection(Arrays.asList("header")));
+        mSection = new TestSection(new ArrayList<>(Arrays.asList("a", "b", "c", "d", "e", "f")));
+        mAdapter.addSection(mSection);
+        mScheduler = mAdapter.getUpdateScheduler();
+
+        mNotifications = new ArrayList<>();
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                mNotifications.add("refresh");
+            }
+
+            @Override
+            public void onItemRangeChanged(int positionStart, int itemCount, Object payload) {
+                mNotifications.add("change " + positionStart + " " + itemCount);
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                mNotifications.add("insert " + positionStart + " " + itemCount);
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                mNotifications.add("remove " + positionStart + " " + itemCount);
+            }
+
+            @Override
+            public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+                fail("Unexpected move from " + fromPosition + " to " + toPosition);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        AdapterExecutors.setBackgroundExecutor(null);
+    }
+
+    @Test
+    public void changesAreHeldUntilTheNextFrame() {
+        mScheduler.add(mSection, 0, "x");
+        mScheduler.remove(mSection, 3);
+
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e", "f"), mSection.getData());
+        assertEquals(7, mAdapter.getItemCount());
+        assertEquals(Collections.<String>emptyList(), mNotifications);
+
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        assertEquals(Arrays.asList("x", "a", "b", "d", "e", "f"), mSection.getData());
+        assertEquals(Arrays.asList("remove 3 1", "insert 1 1"), mNotifications);
+    }
+
+    @Test
+    public void overlappingChangesAreMerged() {
+        mScheduler.add(mSection, 1, "x");
+        mScheduler.add(mSection, 2, "y");
+        mScheduler.set(mSection, 5, "D");
+        mScheduler.set(mSection, 6, "E");
+        mScheduler.remove(mSection, 7);
+        mScheduler.flush();
+
+        assertEquals(Arrays.asList("a", "x", "y", "b", "c", "D", "E"), mSection.getData());
+        assertEquals(Arrays.asList("remove 6 1", "insert 2 2", "change 6 2"), mNotifications);
+    }
+
+    @Test
+    public void insertedItemsThatAreRemovedAreNeverShown() {
+        mScheduler.add(mSection, 1, "x");
+        mScheduler.add(mSection, 2, "y");
+        mScheduler.set(mSection, 1, "X");
+        mScheduler.remove(mSection, 1);
+        mScheduler.remove(mSection, 1);
+        mScheduler.flush();
+
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e", "f"), mSection.getData());
+        assertEquals(Collections.<String>emptyList(), mNotifications);
+
+        // Changes to an inserted item are part of its insertion
+        mScheduler.add(mSection, 0, "z");
+        mScheduler.set(mSection, 0, "Z");
+        mScheduler.flush();
+        assertEquals(Arrays.asList("insert 1 1"), mNotifications);
+    }
+
+    @Test
+    public void flushCancelsThePendingFrame() {
+        mScheduler.add(mSection, 6, "g");
+        mScheduler.flush();
+        assertEquals(Arrays.asList("insert 7 1"), mNotifications);
+
+        mNotifications.clear();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        assertEquals(Collections.<String>emptyList(), mNotifications);
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e", "f", "g"), mSection.getData());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void filteredSectionsAreRejected() {
+        AdapterExecutors.setBackgroundExecutor(new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                command.run();
+            }
+        });
+        mAdapter.filter("a");
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        mScheduler.add(mSection, 0, "x");
+    }
+
+    private static final class TestSection extends HeterogeneousAdapter.ListSection<String> {
+
+        TestSection(List<String> data) {
+            super(data);
+        }
+
+        @Override
+        public EnhancedViewHolder<String> createViewHolder(HeterogeneousAdapter adapter,
+                                                           ViewGroup parent) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.marverenic.demo.heterogeneous.section;
 
 import android.support.annotation.NonNull;
 import android.support.v7.widget.PopupMenu;
+import android.support.v7.widget.RecyclerView;
 import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.MenuItem;
@@ -32,7 +33,6 @@ public class DynamicEntrySection extends HeterogeneousAdapter.ListSection<String
 
         private HeterogeneousAdapter mAdapter;
         private List<String> mData;
-        private int mIndex;
 
         private TextView mTextView;
 
@@ -55,7 +55,6 @@ public class DynamicEntrySection extends HeterogeneousAdapter.ListSection<String
         @Override
         public void onUpdate(String item, int position) {
             mTextView.setText(item);
-            mIndex = position;
         }
 
         @Override
@@ -68,8 +67,9 @@ public class DynamicEntrySection extends HeterogeneousAdapter.ListSection<String
 
         @Override
         public boolean onMenuItemClick(MenuItem item) {
-            if (item.getItemId() == R.id.menu_action_delete) {
-                mData.remove(mIndex);
+            int index = getPositionInSection();
+            if (item.getItemId() == R.id.menu_action_delete && index != RecyclerView.NO_POSITION) {
+                mData.remove(index);
                 mAdapter.notifyDataSetChanged();
                 return true;
             }